@@ -0,0 +1,202 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.benchmark;
+
+import com.hypherionmc.modfusioner.actions.JarMergeAction;
+import com.hypherionmc.modfusioner.plugin.ModFusionerPlugin;
+import com.hypherionmc.modfusioner.utils.JarMetadata;
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * @author HypherionSA
+ * Generates a set of multi loader jars, merges them with {@link JarMergeAction} and records the wall time,
+ * peak heap and bytes written of every phase. Single runs of a full merge don't fit the JMH model well,
+ * so this runs as a plain program, and prints its results as JSON.
+ *
+ * Settings are passed as key=value arguments: entries, platforms, largeAssets, largeAssetSize,
+ * legacyMerge, parallelism, detectDuplicates, iterations and output
+ */
+public class EndToEndBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("entries", "10000");
+        settings.put("platforms", String.join(",", MultiLoaderJarGenerator.PLATFORMS));
+        settings.put("largeAssets", "4");
+        settings.put("largeAssetSize", String.valueOf(1024 * 1024));
+        settings.put("legacyMerge", "false");
+        settings.put("parallelism", String.valueOf(Runtime.getRuntime().availableProcessors()));
+        settings.put("detectDuplicates", "true");
+        settings.put("iterations", "3");
+        settings.put("output", "");
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (separator < 0 || !settings.containsKey(arg.substring(0, separator)))
+                throw new IllegalArgumentException("Unknown setting: " + arg + ". Valid settings are " + settings.keySet());
+            settings.put(arg.substring(0, separator), arg.substring(separator + 1));
+        }
+
+        // The plugin isn't applied while benchmarking
+        if (ModFusionerPlugin.logger == null)
+            ModFusionerPlugin.logger = Logging.getLogger(ModFusionerPlugin.class);
+
+        File dir = SyntheticJar.tempDir("end-to-end");
+        try {
+            List<List<Phase>> runs = new ArrayList<>();
+            int iterations = Integer.parseInt(settings.get("iterations"));
+            for (int i = 0; i < iterations; i++) {
+                runs.add(run(settings, new File(dir, "run" + i)));
+            }
+
+            String json = toJson(settings, runs);
+            System.out.println(json);
+            if (!settings.get("output").isEmpty()) {
+                File output = new File(settings.get("output"));
+                output.getAbsoluteFile().getParentFile().mkdirs();
+                Files.write(output.toPath(), json.getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            FileUtils.deleteQuietly(dir);
+        }
+    }
+
+    /**
+     * Generate the input jars and merge them once
+     * @param settings - The benchmark settings
+     * @param dir - The working directory of this run
+     * @return - The measurements of every phase
+     * @throws IOException - Thrown if the jars cannot be generated or merged
+     */
+    private static List<Phase> run(Map<String, String> settings, File dir) throws IOException {
+        List<Phase> phases = new ArrayList<>();
+        String[] platforms = settings.get("platforms").split(",");
+        MultiLoaderJarGenerator generator = new MultiLoaderJarGenerator(
+                SyntheticInput.GROUP,
+                Integer.parseInt(settings.get("entries")),
+                Integer.parseInt(settings.get("largeAssets")),
+                Integer.parseInt(settings.get("largeAssetSize")));
+
+        File inputs = new File(dir, "inputs");
+        Map<String, File> jars = new LinkedHashMap<>();
+        phases.add(measure("generate", inputs, () -> jars.putAll(generator.generate(inputs, platforms))));
+
+        File tempDir = new File(dir, "merge");
+        File[] merged = new File[1];
+        phases.add(measure("merge", tempDir, () -> {
+            JarMergeAction mergeAction = JarMergeAction.of(new LinkedHashMap<>(), new ArrayList<>(), SyntheticInput.GROUP, tempDir, "merged.jar");
+            mergeAction.setLegacyMerge(Boolean.parseBoolean(settings.get("legacyMerge")));
+            mergeAction.setParallelism(Integer.parseInt(settings.get("parallelism")));
+            mergeAction.setCompressionThreads(Integer.parseInt(settings.get("parallelism")));
+            mergeAction.setDetectDuplicates(Boolean.parseBoolean(settings.get("detectDuplicates")));
+            mergeAction.setForgeInput(jars.get("forge"));
+            mergeAction.setNeoforgeInput(jars.get("neoforge"));
+            mergeAction.setFabricInput(jars.get("fabric"));
+            mergeAction.setQuiltInput(jars.get("quilt"));
+            merged[0] = mergeAction.mergeJars(false);
+        }));
+
+        JarMetadata[] metadata = new JarMetadata[1];
+        phases.add(measure("inspect", null, () -> metadata[0] = JarMetadata.read(merged[0])));
+        phases.get(phases.size() - 1).entries = metadata[0].getEntryCount();
+
+        return phases;
+    }
+
+    /**
+     * Run a single phase and measure it
+     * @param name - The name of the phase
+     * @param output - The directory the phase writes to. Its size after the phase is reported as the bytes written
+     * @param action - The phase to run
+     * @return - The measurements of the phase
+     * @throws IOException - Thrown if the phase fails
+     */
+    private static Phase measure(String name, File output, IOAction action) throws IOException {
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                heapPools.add(pool);
+            }
+        }
+
+        // Start every phase from a clean heap, so the peak only contains what the phase allocated
+        System.gc();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+
+        long start = System.nanoTime();
+        action.run();
+
+        Phase phase = new Phase(name);
+        phase.wallMillis = (System.nanoTime() - start) / 1_000_000.0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            phase.peakHeapBytes += pool.getPeakUsage().getUsed();
+        }
+        if (output != null && output.exists())
+            phase.bytesWritten = FileUtils.sizeOfDirectory(output);
+
+        return phase;
+    }
+
+    private static String toJson(Map<String, String> settings, List<List<Phase>> runs) {
+        StringBuilder json = new StringBuilder("{\n  \"settings\": {");
+        int i = 0;
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            json.append(i++ == 0 ? "\n" : ",\n").append("    \"").append(setting.getKey()).append("\": \"").append(setting.getValue().replace("\\", "\\\\")).append("\"");
+        }
+        json.append("\n  },\n  \"runs\": [");
+
+        for (int run = 0; run < runs.size(); run++) {
+            json.append(run == 0 ? "\n" : ",\n").append("    [");
+            List<Phase> phases = runs.get(run);
+            for (int p = 0; p < phases.size(); p++) {
+                Phase phase = phases.get(p);
+                json.append(p == 0 ? "\n" : ",\n").append(String.format(Locale.ROOT,
+                        "      {\"phase\": \"%s\", \"wallMillis\": %.3f, \"peakHeapBytes\": %d, \"bytesWritten\": %d, \"entries\": %d}",
+                        phase.name, phase.wallMillis, phase.peakHeapBytes, phase.bytesWritten, phase.entries));
+            }
+            json.append("\n    ]");
+        }
+
+        return json.append("\n  ]\n}").toString();
+    }
+
+    /**
+     * The measurements of a single phase
+     */
+    private static class Phase {
+        private final String name;
+        private double wallMillis;
+        private long peakHeapBytes;
+        private long bytesWritten;
+        private int entries;
+
+        private Phase(String name) {
+            this.name = name;
+        }
+    }
+
+    @FunctionalInterface
+    private interface IOAction {
+        void run() throws IOException;
+    }
+}
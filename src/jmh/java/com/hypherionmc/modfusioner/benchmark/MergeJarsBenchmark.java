@@ -0,0 +1,69 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.benchmark;
+
+import com.hypherionmc.modfusioner.actions.JarMergeAction;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author HypherionSA
+ * Benchmark of a complete merge of the synthetic forge and fabric jars
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MergeJarsBenchmark {
+
+    // Which merge implementation to use
+    @Param({"false", "true"})
+    public boolean legacyMerge;
+
+    @Param({"1"})
+    public int parallelism;
+
+    @Benchmark
+    public long mergeJars(SyntheticInput input) throws IOException {
+        File tempDir = new File(input.dir, "merge-temp");
+
+        JarMergeAction mergeAction = JarMergeAction.of(new LinkedHashMap<>(), new ArrayList<>(), SyntheticInput.GROUP, tempDir, "merged.jar");
+        mergeAction.setLegacyMerge(legacyMerge);
+        mergeAction.setParallelism(parallelism);
+        mergeAction.setCompressionThreads(parallelism);
+        mergeAction.setForgeInput(input.forgeJar);
+        mergeAction.setForgeRelocations(new LinkedHashMap<>(input.forgeRelocations));
+        mergeAction.setFabricInput(input.fabricJar);
+        mergeAction.setFabricRelocations(new LinkedHashMap<>(input.fabricRelocations));
+
+        try {
+            return mergeAction.mergeJars(false).length();
+        } finally {
+            FileUtils.deleteQuietly(tempDir);
+        }
+    }
+}
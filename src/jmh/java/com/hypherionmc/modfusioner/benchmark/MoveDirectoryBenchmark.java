@@ -0,0 +1,79 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.benchmark;
+
+import com.hypherionmc.modfusioner.utils.FileTools;
+import com.hypherionmc.modfusioner.utils.MoveReport;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author HypherionSA
+ * Benchmark of moving an extracted platform jar into the merge directory, which already contains the files of
+ * another platform. Every invocation needs fresh directories, so each one is timed on its own
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MoveDirectoryBenchmark {
+
+    // The maximum amount of directories merged at the same time
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @State(Scope.Thread)
+    public static class Directories {
+
+        public File source;
+        public File target;
+
+        @Setup(Level.Invocation)
+        public void setup(SyntheticInput input) throws IOException {
+            source = new File(input.dir, "move-source");
+            target = new File(input.dir, "move-target");
+            FileUtils.deleteQuietly(source);
+            FileUtils.deleteQuietly(target);
+            FileUtils.copyDirectory(input.fabricExtracted, source);
+            FileUtils.copyDirectory(input.forgeExtracted, target);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            FileUtils.deleteQuietly(source);
+            FileUtils.deleteQuietly(target);
+        }
+    }
+
+    @Benchmark
+    public MoveReport moveDirectory(Directories directories) throws IOException {
+        MoveReport report = new MoveReport();
+        FileTools.moveDirectory(directories.source, directories.target, parallelism, report);
+        return report;
+    }
+}
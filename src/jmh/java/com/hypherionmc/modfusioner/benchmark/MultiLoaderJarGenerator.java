@@ -0,0 +1,354 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.benchmark;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @author HypherionSA
+ * Generates a realistic set of multi loader jars, like the ones architectury and multiloader projects build.
+ * Every jar contains common classes that are identical in all jars, platform classes, an architectury injected package,
+ * mixin configs with refmaps, access wideners, nested jars, services, assets and the mod metadata of its loader.
+ * The same settings always produce the same jars
+ */
+public class MultiLoaderJarGenerator {
+
+    // Loaders a jar can be generated for
+    public static final String[] PLATFORMS = { "forge", "neoforge", "fabric", "quilt" };
+
+    // Settings
+    private final String group;
+    private final String modId;
+    private final int entries;
+    private final int largeAssets;
+    private final int largeAssetSize;
+
+    /**
+     * Create a new generator
+     * @param group - The package of the mod. For example: com.mymod
+     * @param entries - The approximate number of entries in every jar. Up to 100000 entries are supported
+     * @param largeAssets - Number of large assets, like sounds, in every jar
+     * @param largeAssetSize - The size of every large asset in bytes
+     */
+    public MultiLoaderJarGenerator(String group, int entries, int largeAssets, int largeAssetSize) {
+        if (entries > 100_000)
+            throw new IllegalArgumentException("At most 100000 entries per jar are supported");
+
+        this.group = group;
+        this.modId = group.substring(group.lastIndexOf('.') + 1);
+        this.entries = entries;
+        this.largeAssets = largeAssets;
+        this.largeAssetSize = largeAssetSize;
+    }
+
+    /**
+     * Generate a jar for every platform
+     * @param dir - The directory to write the jars to
+     * @param platforms - The platforms to generate jars for
+     * @return - The generated jars, keyed by platform
+     * @throws IOException - Thrown if a jar cannot be written
+     */
+    public Map<String, File> generate(File dir, String... platforms) throws IOException {
+        dir.mkdirs();
+        Map<String, File> jars = new LinkedHashMap<>();
+        for (String platform : platforms) {
+            File jar = new File(dir, modId + "-" + platform + ".jar");
+            write(platform, jar);
+            jars.put(platform, jar);
+        }
+        return jars;
+    }
+
+    /**
+     * Write the jar of a single platform
+     * @param platform - The platform to generate the jar for
+     * @param jar - The file to write to
+     * @throws IOException - Thrown if the jar cannot be written
+     */
+    public void write(String platform, File jar) throws IOException {
+        Random random = new Random(platform.hashCode());
+        String groupPath = group.replace('.', '/');
+        String architectury = "architectury_inject_" + modId + "_common_" + Integer.toHexString(group.hashCode());
+        boolean fabricLike = platform.equals("fabric") || platform.equals("quilt");
+        String accessWidener = modId + ".accesswidener";
+
+        // Classes take most of the jar, followed by assets and text resources
+        int commonClasses = entries * 2 / 5;
+        int platformClasses = entries / 5;
+        int textures = entries / 4;
+        int lang = Math.max(1, entries / 20);
+
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(jar)) {
+            StringBuilder manifest = new StringBuilder("Manifest-Version: 1.0\r\nImplementation-Title: " + modId + "-" + platform + "\r\n");
+            if (!fabricLike)
+                manifest.append("MixinConfigs: ").append(modId).append(".mixins.json,").append(modId).append("-").append(platform).append(".mixins.json\r\n");
+            put(out, "META-INF/MANIFEST.MF", manifest.append("\r\n").toString());
+
+            // Common code, identical in every jar
+            for (int i = 0; i < commonClasses; i++) {
+                put(out, groupPath + "/common/pkg" + (i % 64) + "/Common" + i + ".class", commonClass(groupPath, i, commonClasses));
+            }
+
+            // Platform specific code, that references the common code and the architectury injected package
+            for (int i = 0; i < platformClasses; i++) {
+                put(out, groupPath + "/platform/pkg" + (i % 16) + "/" + capitalize(platform) + i + ".class", platformClass(groupPath, platform, architectury, i, commonClasses));
+            }
+            put(out, architectury + "/PlatformMethods.class", architecturyClass(architectury));
+            put(out, groupPath + "/mixin/" + capitalize(platform) + "Mixin.class", platformClass(groupPath, platform, architectury, -1, commonClasses));
+
+            // Mixins and refmaps
+            put(out, modId + ".mixins.json", mixinConfig(modId + ".refmap.json", "common"));
+            put(out, modId + "-" + platform + ".mixins.json", mixinConfig(modId + "-" + platform + "-refmap.json", platform));
+            put(out, modId + ".refmap.json", refmap(groupPath, "common"));
+            put(out, modId + "-" + platform + "-refmap.json", refmap(groupPath, platform));
+
+            // Services
+            put(out, "META-INF/services/" + group + ".platform.Services", group + ".platform.pkg0." + capitalize(platform) + "0\n");
+
+            // Nested jars
+            String nestedDir = fabricLike ? "META-INF/jars/" : "META-INF/jarjar/";
+            put(out, nestedDir + modId + "-library-1.0.jar", nestedJar(groupPath));
+
+            // Loader metadata
+            switch (platform) {
+                case "fabric":
+                    put(out, "fabric.mod.json", fabricModJson(platform, accessWidener, nestedDir));
+                    put(out, accessWidener, accessWidener(groupPath));
+                    break;
+                case "quilt":
+                    put(out, "quilt.mod.json", quiltModJson(accessWidener, nestedDir));
+                    put(out, accessWidener, accessWidener(groupPath));
+                    break;
+                case "neoforge":
+                    put(out, "META-INF/neoforge.mods.toml", modsToml(platform));
+                    put(out, "META-INF/jarjar/metadata.json", jarJarMetadata(nestedDir));
+                    put(out, "META-INF/accesstransformer.cfg", "public " + group + ".common.pkg0.Common0 <init>()V\n");
+                    break;
+                default:
+                    put(out, "META-INF/mods.toml", modsToml(platform));
+                    put(out, "META-INF/jarjar/metadata.json", jarJarMetadata(nestedDir));
+                    put(out, "META-INF/accesstransformer.cfg", "public " + group + ".common.pkg0.Common0 <init>()V\n");
+                    break;
+            }
+
+            // Assets, identical in every jar
+            Random assets = new Random(group.hashCode());
+            for (int i = 0; i < textures; i++) {
+                byte[] texture = new byte[512 + assets.nextInt(4096)];
+                assets.nextBytes(texture);
+                texture[0] = 0;
+                put(out, "assets/" + modId + "/textures/block/texture" + i + ".png", texture);
+            }
+
+            for (int i = 0; i < largeAssets; i++) {
+                byte[] sound = new byte[largeAssetSize];
+                random.nextBytes(sound);
+                sound[0] = 0;
+                put(out, "assets/" + modId + "/sounds/" + platform + "_sound" + i + ".ogg", sound);
+            }
+
+            for (int i = 0; i < lang; i++) {
+                put(out, "assets/" + modId + "/lang/lang" + i + ".json", "{\n  \"block." + modId + ".block" + i + "\": \"Block " + i + "\",\n  \"class\": \"" + group + ".common.pkg0.Common0\"\n}\n");
+            }
+        }
+    }
+
+    private byte[] commonClass(String groupPath, int index, int count) {
+        String name = groupPath + "/common/pkg" + (index % 64) + "/Common" + index;
+        int nextIndex = (index + 1) % Math.max(1, count);
+        String next = groupPath + "/common/pkg" + (nextIndex % 64) + "/Common" + nextIndex;
+
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PRIVATE, "next", "L" + next + ";", null, null).visitEnd();
+        constructor(writer);
+
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "describe", "()Ljava/lang/String;", null, null);
+        method.visitCode();
+        method.visitLdcInsn(Type.getObjectType(next));
+        method.visitInsn(Opcodes.POP);
+        method.visitLdcInsn(name.replace('/', '.'));
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private byte[] platformClass(String groupPath, String platform, String architectury, int index, int commonCount) {
+        String name = index < 0
+                ? groupPath + "/mixin/" + capitalize(platform) + "Mixin"
+                : groupPath + "/platform/pkg" + (index % 16) + "/" + capitalize(platform) + index;
+        int commonIndex = Math.max(index, 0) % Math.max(1, commonCount);
+        String common = groupPath + "/common/pkg" + (commonIndex % 64) + "/Common" + commonIndex;
+
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PRIVATE, "common", "L" + common + ";", null, null).visitEnd();
+        constructor(writer);
+
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "platform", "()Ljava/lang/String;", null, null);
+        method.visitCode();
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, architectury + "/PlatformMethods", "getCurrentTarget", "()Ljava/lang/String;", false);
+        method.visitInsn(Opcodes.POP);
+        method.visitLdcInsn(platform + ":" + name.replace('/', '.'));
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static byte[] architecturyClass(String architectury) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, architectury + "/PlatformMethods", null, "java/lang/Object", null);
+        constructor(writer);
+
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "getCurrentTarget", "()Ljava/lang/String;", null, null);
+        method.visitCode();
+        method.visitLdcInsn("target");
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static void constructor(ClassWriter writer) {
+        MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+    }
+
+    private String mixinConfig(String refmap, String target) {
+        return "{\n" +
+                "  \"required\": true,\n" +
+                "  \"package\": \"" + group + ".mixin\",\n" +
+                "  \"compatibilityLevel\": \"JAVA_17\",\n" +
+                "  \"refmap\": \"" + refmap + "\",\n" +
+                "  \"mixins\": [\"" + capitalize(target) + "Mixin\"],\n" +
+                "  \"client\": []\n" +
+                "}\n";
+    }
+
+    private String refmap(String groupPath, String target) {
+        return "{\n" +
+                "  \"mappings\": {\n" +
+                "    \"" + groupPath + "/mixin/" + capitalize(target) + "Mixin\": {\n" +
+                "      \"tick\": \"Lnet/minecraft/world/level/Level;m_46463_()V\"\n" +
+                "    }\n" +
+                "  },\n" +
+                "  \"data\": {}\n" +
+                "}\n";
+    }
+
+    private String fabricModJson(String platform, String accessWidener, String nestedDir) {
+        return "{\n" +
+                "  \"schemaVersion\": 1,\n" +
+                "  \"id\": \"" + modId + "\",\n" +
+                "  \"version\": \"1.0\",\n" +
+                "  \"entrypoints\": {\n" +
+                "    \"main\": [\"" + group + ".platform.pkg0." + capitalize(platform) + "0\"]\n" +
+                "  },\n" +
+                "  \"mixins\": [\"" + modId + ".mixins.json\", \"" + modId + "-" + platform + ".mixins.json\"],\n" +
+                "  \"accessWidener\": \"" + accessWidener + "\",\n" +
+                "  \"jars\": [{\"file\": \"" + nestedDir + modId + "-library-1.0.jar\"}]\n" +
+                "}\n";
+    }
+
+    private String quiltModJson(String accessWidener, String nestedDir) {
+        return "{\n" +
+                "  \"schema_version\": 1,\n" +
+                "  \"quilt_loader\": {\n" +
+                "    \"id\": \"" + modId + "\",\n" +
+                "    \"version\": \"1.0\",\n" +
+                "    \"entrypoints\": {\n" +
+                "      \"init\": \"" + group + ".platform.pkg0.Quilt0\"\n" +
+                "    },\n" +
+                "    \"jars\": [\"" + nestedDir + modId + "-library-1.0.jar\"]\n" +
+                "  },\n" +
+                "  \"mixin\": [\"" + modId + ".mixins.json\", \"" + modId + "-quilt.mixins.json\"],\n" +
+                "  \"access_widener\": \"" + accessWidener + "\"\n" +
+                "}\n";
+    }
+
+    private String modsToml(String platform) {
+        return "modLoader=\"javafml\"\n" +
+                "loaderVersion=\"[1,)\"\n" +
+                "license=\"LGPL\"\n\n" +
+                "[[mods]]\n" +
+                "modId=\"" + modId + "\"\n" +
+                "version=\"1.0\"\n" +
+                "displayName=\"" + modId + " (" + platform + ")\"\n\n" +
+                "[[mixins]]\n" +
+                "config=\"" + modId + ".mixins.json\"\n";
+    }
+
+    private String jarJarMetadata(String nestedDir) {
+        return "{\n" +
+                "  \"jars\": [{\n" +
+                "    \"identifier\": {\"group\": \"" + group + "\", \"artifact\": \"" + modId + "-library\"},\n" +
+                "    \"version\": {\"range\": \"[1.0,)\", \"artifactVersion\": \"1.0\"},\n" +
+                "    \"path\": \"" + nestedDir + modId + "-library-1.0.jar\",\n" +
+                "    \"isObfuscated\": false\n" +
+                "  }]\n" +
+                "}\n";
+    }
+
+    private static String accessWidener(String groupPath) {
+        return "accessWidener v2 named\n" +
+                "accessible class " + groupPath + "/common/pkg0/Common0\n";
+    }
+
+    private byte[] nestedJar(String groupPath) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(bytes)) {
+            put(out, "META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n");
+            put(out, groupPath + "/library/common/pkg0/Common0.class", commonClass(groupPath + "/library", 0, 1));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void put(ZipArchiveOutputStream out, String name, String text) throws IOException {
+        put(out, name, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void put(ZipArchiveOutputStream out, String name, byte[] data) throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setTime(0);
+        out.putArchiveEntry(entry);
+        out.write(data);
+        out.closeArchiveEntry();
+    }
+
+    private static String capitalize(String name) {
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.benchmark;
+
+import com.hypherionmc.modfusioner.utils.FileChecks;
+import com.hypherionmc.modfusioner.utils.FileTools;
+import com.hypherionmc.modfusioner.utils.MemoryCache;
+import com.hypherionmc.modfusioner.utils.ResourceIndex;
+import com.hypherionmc.modfusioner.utils.TextRelocator;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author HypherionSA
+ * Benchmarks of the resource processing done for every extracted input jar
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResourceBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ExtractedFiles {
+
+        // Every file of the extracted forge jar
+        public List<File> files;
+
+        // The contents of the files
+        public List<byte[]> contents;
+
+        // Text relocations, like the ones built by JarMergeAction#remapJarResources
+        public Map<String, String> textRelocations;
+
+        // Keeps the compiled relocations, like the cache of a build
+        public MemoryCache memoryCache = new MemoryCache(MemoryCache.DEFAULT_MAX_SIZE);
+
+        @Setup(Level.Trial)
+        public void setup(SyntheticInput input) throws IOException {
+            Collection<File> all = FileUtils.listFiles(input.forgeExtracted, null, true);
+            files = new ArrayList<>(all);
+            contents = new ArrayList<>();
+            for (File file : files) {
+                contents.add(Files.readAllBytes(file.toPath()));
+            }
+
+            textRelocations = new LinkedHashMap<>(input.forgeRelocations);
+            textRelocations.put(SyntheticInput.GROUP, "forge." + SyntheticInput.GROUP);
+            textRelocations.put(SyntheticInput.GROUP.replace(".", "/"), "forge/" + SyntheticInput.GROUP.replace(".", "/"));
+        }
+    }
+
+    /**
+     * Index and relocate all the resources of an extracted jar, the same way remapJarResources does.
+     * Relocated files are not written back, so every invocation sees the same input
+     */
+    @Benchmark
+    public void remapJarResources(SyntheticInput input, ExtractedFiles files, Blackhole blackhole) throws IOException {
+        ResourceIndex index = ResourceIndex.of(input.forgeExtracted);
+        blackhole.consume(index.getMixins(false));
+        blackhole.consume(index.getRefmaps());
+        blackhole.consume(index.getPlatformServices(SyntheticInput.GROUP));
+
+        TextRelocator relocator = TextRelocator.compile(files.memoryCache, files.textRelocations, new HashMap<>());
+        for (ResourceIndex.Resource resource : index.getTextFiles()) {
+            blackhole.consume(relocator.relocate(Files.readAllBytes(resource.getFile().toPath())));
+        }
+    }
+
+    @Benchmark
+    public List<File> getTextFiles(SyntheticInput input) throws IOException {
+        return FileTools.getTextFiles(input.forgeExtracted);
+    }
+
+    @Benchmark
+    public void isBinaryFile(ExtractedFiles files, Blackhole blackhole) {
+        for (File file : files.files) {
+            blackhole.consume(FileChecks.isBinary(file));
+        }
+    }
+
+    @Benchmark
+    public void isBinaryData(ExtractedFiles files, Blackhole blackhole) {
+        for (byte[] data : files.contents) {
+            blackhole.consume(FileChecks.isBinary(data));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.benchmark;
+
+import com.hypherionmc.modfusioner.plugin.ModFusionerPlugin;
+import org.apache.commons.io.FileUtils;
+import org.gradle.api.logging.Logging;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * @author HypherionSA
+ * Synthetic forge and fabric jars shared by the benchmarks. The size of the jars can be changed with
+ * the JMH parameters, for example: -Pjmh.params=classCount=5000
+ */
+@State(Scope.Benchmark)
+public class SyntheticInput {
+
+    public static final String GROUP = "com.mymod";
+
+    // Jar size
+    @Param({"500"})
+    public int classCount;
+
+    @Param({"200"})
+    public int assetCount;
+
+    @Param({"4096"})
+    public int textFileSize;
+
+    @Param({"16"})
+    public int relocationCount;
+
+    // Generated files
+    public File dir;
+    public File forgeJar;
+    public File fabricJar;
+    public File forgeExtracted;
+    public File fabricExtracted;
+    public Map<String, String> forgeRelocations;
+    public Map<String, String> fabricRelocations;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        // The plugin isn't applied while benchmarking
+        if (ModFusionerPlugin.logger == null)
+            ModFusionerPlugin.logger = Logging.getLogger(ModFusionerPlugin.class);
+
+        dir = SyntheticJar.tempDir("benchmark");
+        forgeJar = new File(dir, "forge.jar");
+        fabricJar = new File(dir, "fabric.jar");
+        new SyntheticJar("forge", GROUP, classCount, assetCount, textFileSize, relocationCount).write(forgeJar);
+        new SyntheticJar("fabric", GROUP, classCount, assetCount, textFileSize, relocationCount).write(fabricJar);
+
+        forgeExtracted = new File(dir, "forge-extracted");
+        fabricExtracted = new File(dir, "fabric-extracted");
+        SyntheticJar.extract(forgeJar, forgeExtracted);
+        SyntheticJar.extract(fabricJar, fabricExtracted);
+
+        forgeRelocations = SyntheticJar.relocations(GROUP, "forge", relocationCount);
+        fabricRelocations = SyntheticJar.relocations(GROUP, "fabric", relocationCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        FileUtils.deleteQuietly(dir);
+    }
+}
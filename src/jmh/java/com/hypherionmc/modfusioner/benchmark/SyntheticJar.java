@@ -0,0 +1,197 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.benchmark;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * @author HypherionSA
+ * Writes jars with generated classes, assets and text files, so the benchmarks can run on inputs of any size.
+ * The same settings always produce the same jar
+ */
+public class SyntheticJar {
+
+    // Settings
+    private final String platform;
+    private final String group;
+    private final int classCount;
+    private final int assetCount;
+    private final int textFileSize;
+    private final int relocationCount;
+
+    /**
+     * Create a new jar generator
+     * @param platform - The platform the jar is built for. Used in the generated resource names
+     * @param group - The package the generated classes are placed in. For example: com.mymod
+     * @param classCount - Number of classes to generate
+     * @param assetCount - Number of binary assets to generate
+     * @param textFileSize - Size of every generated text file in bytes
+     * @param relocationCount - Number of library packages the classes reference, see {@link SyntheticJar#relocations(String, String, int)}
+     */
+    public SyntheticJar(String platform, String group, int classCount, int assetCount, int textFileSize, int relocationCount) {
+        this.platform = platform;
+        this.group = group;
+        this.classCount = classCount;
+        this.assetCount = assetCount;
+        this.textFileSize = textFileSize;
+        this.relocationCount = relocationCount;
+    }
+
+    /**
+     * Build the relocations of the library packages referenced by the generated classes
+     * @param group - The package of the generated classes
+     * @param platform - The platform the libraries are relocated for
+     * @param relocationCount - Number of library packages
+     * @return - The relocations. For example: lib.lib0 -> com.mymod.forge.lib0
+     */
+    public static Map<String, String> relocations(String group, String platform, int relocationCount) {
+        Map<String, String> relocations = new LinkedHashMap<>();
+        for (int i = 0; i < relocationCount; i++) {
+            relocations.put("lib.lib" + i, group + "." + platform + ".lib" + i);
+        }
+        return relocations;
+    }
+
+    /**
+     * Write the jar
+     * @param jar - The file to write to
+     * @throws IOException - Thrown if the jar cannot be written
+     */
+    public void write(File jar) throws IOException {
+        Random random = new Random(platform.hashCode());
+        String groupPath = group.replace('.', '/');
+
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(jar)) {
+            put(out, "META-INF/MANIFEST.MF", ("Manifest-Version: 1.0\r\nImplementation-Title: " + platform + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+
+            for (int i = 0; i < classCount; i++) {
+                put(out, groupPath + "/pkg" + (i % 32) + "/Generated" + i + ".class", generateClass(groupPath, i));
+            }
+
+            for (int i = 0; i < assetCount; i++) {
+                byte[] asset = new byte[1024 + random.nextInt(8192)];
+                random.nextBytes(asset);
+                asset[0] = 0;
+                put(out, "assets/" + platform + "/textures/texture" + i + ".png", asset);
+            }
+
+            int textFiles = Math.max(1, assetCount / 4);
+            for (int i = 0; i < textFiles; i++) {
+                put(out, "data/" + platform + "/recipes/recipe" + i + ".json", generateText(i));
+            }
+
+            put(out, platform + ".mixins.json", ("{\"package\": \"" + group + ".mixin\", \"mixins\": [\"Generated0\"]}").getBytes(StandardCharsets.UTF_8));
+            put(out, "META-INF/services/" + group + ".Service", (group + ".pkg0.Generated0\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Extract a jar to a directory
+     * @param jar - The jar to extract
+     * @param dir - The directory to extract to
+     * @throws IOException - Thrown if the jar cannot be extracted
+     */
+    public static void extract(File jar, File dir) throws IOException {
+        try (ZipFile zip = new ZipFile(jar)) {
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+                File file = new File(dir, entry.getName());
+                if (entry.isDirectory()) {
+                    file.mkdirs();
+                    continue;
+                }
+
+                file.getParentFile().mkdirs();
+                try (InputStream in = zip.getInputStream(entry); OutputStream out = new FileOutputStream(file)) {
+                    IOUtils.copy(in, out);
+                }
+            }
+        }
+    }
+
+    private byte[] generateClass(String groupPath, int index) {
+        String name = groupPath + "/pkg" + (index % 32) + "/Generated" + index;
+        String next = groupPath + "/pkg" + ((index + 1) % 32) + "/Generated" + ((index + 1) % Math.max(1, classCount));
+
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        writer.visitField(Opcodes.ACC_PRIVATE, "next", "L" + next + ";", null, null).visitEnd();
+
+        if (relocationCount > 0)
+            writer.visitField(Opcodes.ACC_PRIVATE, "library", "Llib/lib" + (index % relocationCount) + "/Library;", null, null).visitEnd();
+
+        MethodVisitor constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "describe", "()Ljava/lang/String;", null, null);
+        method.visitCode();
+        method.visitLdcInsn(Type.getObjectType(next));
+        method.visitInsn(Opcodes.POP);
+        method.visitLdcInsn(name.replace('/', '.'));
+        method.visitInsn(Opcodes.ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private byte[] generateText(int index) {
+        StringBuilder text = new StringBuilder("{\n  \"type\": \"" + platform + ":recipe" + index + "\",\n  \"entries\": [\n");
+        int line = 0;
+        while (text.length() < textFileSize) {
+            text.append("    \"").append(group).append(".pkg").append(line % 32).append(".Generated").append(line).append("\",\n");
+            line++;
+        }
+        text.append("    \"end\"\n  ]\n}\n");
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void put(ZipArchiveOutputStream out, String name, byte[] data) throws IOException {
+        ZipArchiveEntry entry = new ZipArchiveEntry(name);
+        entry.setTime(0);
+        out.putArchiveEntry(entry);
+        out.write(data);
+        out.closeArchiveEntry();
+    }
+
+    /**
+     * Create a temporary directory for benchmark files
+     * @param name - Prefix of the directory name
+     * @return - The new directory
+     * @throws IOException - Thrown if the directory cannot be created
+     */
+    public static File tempDir(String name) throws IOException {
+        return Files.createTempDirectory("modfusioner-" + name).toFile();
+    }
+}
@@ -10,6 +10,8 @@
 package com.hypherionmc.modfusioner;
 
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -24,6 +26,9 @@ public class Constants {
     public static final String EXTENSION_NAME = "fusioner";
     public static final String MANIFEST_KEY = "ModFusioner-Version";
 
+    // Timestamp used for generated jar entries, so the same inputs always produce the same jar
+    public static final long CONSTANT_ENTRY_TIME = new GregorianCalendar(1980, Calendar.FEBRUARY, 1, 0, 0, 0).getTimeInMillis();
+
     public static Set<PosixFilePermission> filePerms = new HashSet<>();
 
     static {
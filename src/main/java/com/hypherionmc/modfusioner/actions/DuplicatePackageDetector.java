@@ -0,0 +1,229 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.actions;
+
+import com.hypherionmc.modfusioner.utils.FileTools;
+import com.hypherionmc.modfusioner.utils.ParallelTasks;
+import lombok.RequiredArgsConstructor;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.logger;
+
+/**
+ * @author HypherionSA
+ * Finds packages of the mod group that are identical in every input jar, so they can be de-duplicated
+ * without listing them by hand. Every platform relocates the group by adding its own prefix, so comparing
+ * the original entries gives the same result as comparing the relocated entries with the prefix stripped
+ */
+@RequiredArgsConstructor(staticName = "of")
+public class DuplicatePackageDetector {
+
+    // Constant pool tag of UTF-8 strings
+    private static final int CONSTANT_UTF8 = 1;
+
+    // Inputs
+    private final List<PlatformInput> inputs;
+
+    // Settings
+    private final String group;
+    private final int parallelism;
+
+    /**
+     * Find the packages that are identical in all input jars
+     * @return - The duplicate packages. Each package ends with a ".", so it only matches that package and its sub packages
+     * @throws IOException - Thrown if an input jar cannot be read
+     */
+    public List<String> detect() throws IOException {
+        List<PlatformInput> existing = inputs.stream().filter(i -> FileTools.exists(i.getJar())).collect(Collectors.toList());
+        if (existing.size() < 2 || group == null || group.isEmpty())
+            return new ArrayList<>();
+
+        String groupPath = group.replace(".", "/") + "/";
+
+        List<ParallelTasks.IOCallable<JarPackages>> tasks = new ArrayList<>();
+        for (PlatformInput input : existing) {
+            tasks.add(() -> scanJar(input, groupPath));
+        }
+        List<JarPackages> jars = ParallelTasks.invokeAll(parallelism, tasks);
+
+        // Packages with the exact same entries in every jar
+        JarPackages first = jars.get(0);
+        Set<String> allPackages = new TreeSet<>();
+        jars.forEach(jar -> allPackages.addAll(jar.packages.keySet()));
+
+        Set<String> candidates = new TreeSet<>();
+        for (String pkg : first.packages.keySet()) {
+            if (jars.stream().allMatch(jar -> first.packages.get(pkg).equals(jar.packages.get(pkg))))
+                candidates.add(pkg);
+        }
+
+        // A package can only be moved if it doesn't reference a package that stays platform specific
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Iterator<String> iterator = candidates.iterator(); iterator.hasNext(); ) {
+                String pkg = iterator.next();
+                for (String reference : first.references.getOrDefault(pkg, Collections.emptySet())) {
+                    if (allPackages.contains(reference) && !candidates.contains(reference)) {
+                        iterator.remove();
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        // Packages are relocated with their sub packages, so all sub packages need to be duplicates as well
+        Set<String> roots = new TreeSet<>();
+        for (String pkg : candidates) {
+            boolean complete = allPackages.stream().filter(p -> p.startsWith(pkg + "/")).allMatch(candidates::contains);
+            boolean parentIsRoot = roots.stream().anyMatch(root -> pkg.startsWith(root + "/"));
+            if (complete && !parentIsRoot)
+                roots.add(pkg);
+        }
+
+        // Report the space saved by only including one copy
+        long entries = 0;
+        long size = 0;
+        long compressedSize = 0;
+        for (Map.Entry<String, EntryStats> entry : first.stats.entrySet()) {
+            String pkg = entry.getKey();
+            if (roots.stream().anyMatch(root -> pkg.equals(root) || pkg.startsWith(root + "/"))) {
+                entries += entry.getValue().entries * (jars.size() - 1);
+                size += entry.getValue().size * (jars.size() - 1);
+                compressedSize += entry.getValue().compressedSize * (jars.size() - 1);
+            }
+        }
+
+        List<String> duplicates = roots.stream().map(root -> root.replace("/", ".") + ".").collect(Collectors.toList());
+        if (!duplicates.isEmpty()) {
+            logger.lifecycle("Detected duplicate packages: " + roots.stream().map(root -> root.replace("/", ".")).collect(Collectors.joining(", ")));
+            logger.lifecycle("De-duplicating them removes " + entries + " entries, saving " + FileUtils.byteCountToDisplaySize(size) + " (" + FileUtils.byteCountToDisplaySize(compressedSize) + " compressed)");
+        } else {
+            logger.info("No duplicate packages were detected");
+        }
+
+        return duplicates;
+    }
+
+    /**
+     * Hash all the entries of the mod group in a single jar, and collect the packages referenced by its classes
+     * @param input - The jar to scan
+     * @param groupPath - The mod group, as a path
+     * @return - The scanned packages
+     * @throws IOException - Thrown if the jar cannot be read
+     */
+    private static JarPackages scanJar(PlatformInput input, String groupPath) throws IOException {
+        JarPackages result = new JarPackages();
+        MessageDigest digest = FileTools.newDigest();
+
+        try (ZipFile zip = new ZipFile(input.getJar())) {
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.startsWith(groupPath))
+                    continue;
+
+                byte[] data;
+                try (InputStream stream = zip.getInputStream(entry)) {
+                    data = IOUtils.toByteArray(stream);
+                }
+
+                String pkg = name.substring(0, name.lastIndexOf('/'));
+                result.packages.computeIfAbsent(pkg, p -> new TreeMap<>()).put(name, Base64.getEncoder().encodeToString(digest.digest(data)));
+
+                EntryStats stats = result.stats.computeIfAbsent(pkg, p -> new EntryStats());
+                stats.entries++;
+                stats.size += data.length;
+                stats.compressedSize += Math.max(entry.getCompressedSize(), 0);
+
+                if (name.endsWith(".class"))
+                    collectReferences(data, groupPath, result.references.computeIfAbsent(pkg, p -> new HashSet<>()));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Find all the packages of the mod group that are mentioned in the constant pool of a class.
+     * Both internal names and dotted class names are included
+     * @param data - The class file
+     * @param groupPath - The mod group, as a path
+     * @param references - The referenced packages will be added to this set
+     */
+    private static void collectReferences(byte[] data, String groupPath, Set<String> references) {
+        ClassReader reader = new ClassReader(data);
+        String groupName = groupPath.replace("/", ".");
+
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            if (offset <= 0 || data[offset - 1] != CONSTANT_UTF8)
+                continue;
+
+            int length = reader.readUnsignedShort(offset);
+            StringBuilder token = new StringBuilder();
+            for (int j = offset + 2; j <= offset + 2 + length; j++) {
+                char c = j < offset + 2 + length ? (char) (data[j] & 0xFF) : ' ';
+                if (c < 128 && (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '/' || c == '.')) {
+                    token.append(c);
+                    continue;
+                }
+
+                addReference(token.toString(), groupPath, groupName, references);
+                token.setLength(0);
+            }
+        }
+    }
+
+    private static void addReference(String token, String groupPath, String groupName, Set<String> references) {
+        int index = token.indexOf(groupPath);
+        if (index < 0) {
+            index = token.indexOf(groupName);
+            if (index < 0)
+                return;
+            token = token.replace(".", "/");
+        }
+
+        String name = token.substring(index);
+        int lastSeparator = name.lastIndexOf('/');
+        if (lastSeparator > 0)
+            references.add(name.substring(0, lastSeparator));
+    }
+
+    /**
+     * The scanned entries of a single jar
+     */
+    private static class JarPackages {
+        // Entry hashes, keyed by package and entry name
+        private final Map<String, Map<String, String>> packages = new TreeMap<>();
+
+        // Packages of the mod group referenced by the classes of each package
+        private final Map<String, Set<String>> references = new HashMap<>();
+
+        // Size of the entries of each package
+        private final Map<String, EntryStats> stats = new HashMap<>();
+    }
+
+    private static class EntryStats {
+        private long entries;
+        private long size;
+        private long compressedSize;
+    }
+}
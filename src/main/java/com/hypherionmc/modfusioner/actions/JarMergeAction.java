@@ -13,28 +13,41 @@ import com.hypherionmc.jarmanager.JarManager;
 import com.hypherionmc.jarrelocator.Relocation;
 import com.hypherionmc.modfusioner.Constants;
 import com.hypherionmc.modfusioner.plugin.FusionerExtension;
+import com.hypherionmc.modfusioner.utils.ClassOptimizer;
+import com.hypherionmc.modfusioner.utils.CompressionPolicy;
+import com.hypherionmc.modfusioner.utils.CompressionReport;
 import com.hypherionmc.modfusioner.utils.FileTools;
+import com.hypherionmc.modfusioner.utils.JarMetadata;
+import com.hypherionmc.modfusioner.utils.MemoryCache;
+import com.hypherionmc.modfusioner.utils.PackageRelocator;
+import com.hypherionmc.modfusioner.utils.EntryStore;
+import com.hypherionmc.modfusioner.utils.MoveReport;
+import com.hypherionmc.modfusioner.utils.NestedJarDeduplicator;
+import com.hypherionmc.modfusioner.utils.ParallelTasks;
+import com.hypherionmc.modfusioner.utils.PhaseReport;
+import com.hypherionmc.modfusioner.utils.RemapCache;
+import com.hypherionmc.modfusioner.utils.ResourceIndex;
+import com.hypherionmc.modfusioner.utils.ResourceRewriter;
+import com.hypherionmc.modfusioner.utils.TextRelocator;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
 import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
-import java.util.jar.JarFile;
+import java.util.*;
 import java.util.jar.Manifest;
-import java.util.zip.Deflater;
+import java.util.stream.Collectors;
 
 import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.logger;
-import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.modFusionerExtension;
 import static com.hypherionmc.modfusioner.utils.FileTools.*;
 
 /**
@@ -45,6 +58,9 @@ import static com.hypherionmc.modfusioner.utils.FileTools.*;
 @RequiredArgsConstructor(staticName = "of")
 public class JarMergeAction {
 
+    // Changing how jars are remapped requires bumping this value, so older remapped jars aren't reused
+    private static final String CACHE_FORMAT = "remap-3";
+
     // File Inputs
     @Setter private File forgeInput;
     @Setter private File neoforgeInput;
@@ -64,18 +80,43 @@ public class JarMergeAction {
     // Custom
     private Map<FusionerExtension.CustomConfiguration, Map<File, File>> customTemps;
 
+    // The original input jars, with the metadata read from their central directory
+    private List<PlatformInput> platformInputs;
+
     // Relocations
     private final List<String> ignoredPackages;
-    private final Map<String, String> ignoredDuplicateRelocations = new HashMap<>();
+    private final List<String> duplicatePackages = new ArrayList<>();
+    private final Map<String, String> ignoredDuplicateRelocations = new LinkedHashMap<>();
     private final Map<String, String> removeDuplicateRelocationResources = new HashMap<>();
-    private final List<Relocation> relocations = new ArrayList<>();
     JarManager jarManager = JarManager.getInstance();
 
+    // Cache
+    private RemapCache remapCache;
 
     // Settings
     private final String group;
     private final File tempDir;
     private final String outJarName;
+    @Setter private boolean legacyMerge = true;
+    @Setter private int parallelism = 1;
+    @Setter private long remapCacheSize;
+    @Setter private CompressionPolicy compression = CompressionPolicy.DEFAULT;
+    @Setter private boolean compressionReport;
+    @Setter private int compressionThreads = 1;
+    @Setter private boolean detectDuplicates;
+
+    // The memory used for merged entries, and the size above which entries are written to disk, in bytes
+    @Setter private long memoryBudget = EntryStore.DEFAULT_MEMORY_BUDGET;
+    @Setter private int spillThreshold = EntryStore.DEFAULT_SPILL_THRESHOLD;
+
+    // Debug attributes that are removed from classes
+    @Setter private ClassOptimizer classOptimizer = ClassOptimizer.DISABLED;
+
+    // Remapped jars, input hashes and compiled relocations, kept between merges in the same process
+    @Setter private MemoryCache memoryCache = new MemoryCache(MemoryCache.DEFAULT_MAX_SIZE);
+
+    // Timing and allocations of every phase of the merge
+    @Getter @Setter private PhaseReport report = new PhaseReport();
 
     /**
      * Start the merge process
@@ -84,7 +125,7 @@ public class JarMergeAction {
      * @throws IOException - Thrown when an IO Exception occurs
      */
     public File mergeJars(boolean skipIfExists) throws IOException {
-        jarManager.setCompressionLevel(Deflater.BEST_COMPRESSION);
+        jarManager.setCompressionLevel(compression.getDefaultLevel());
         File outJar = new File(tempDir, outJarName);
         if (outJar.exists()) {
             if (skipIfExists) return outJar;
@@ -94,35 +135,64 @@ public class JarMergeAction {
         logger.lifecycle("Cleaning output Directory");
         FileTools.createOrReCreate(tempDir);
 
+        if (remapCacheSize > 0) {
+            remapCache = new RemapCache(new File(tempDir.getParentFile(), "fusioner-cache"), remapCacheSize);
+        }
+
         // Check if the required input files exists
         if (forgeInput == null && neoforgeInput == null && fabricInput == null && quiltInput == null && customInputs.isEmpty()) {
             throw new IllegalArgumentException("No input jars were provided.");
         }
 
-        if (modFusionerExtension.getForgeConfiguration() != null && !FileTools.exists(forgeInput)) {
-            logger.warn("Forge jar does not exist! You can ignore this warning if you are not using forge");
+        // Read the metadata of every input once, so it can be shared by all the steps of the merge
+        try (PhaseReport.Phase phase = report.start("read-metadata")) {
+            platformInputs = readPlatformInputs();
+            phase.addFiles(countInputs()).addBytesIn(inputBytes());
         }
 
-        if (modFusionerExtension.getNeoforgeConfiguration() != null && !FileTools.exists(neoforgeInput)) {
-            logger.warn("NeoForge jar does not exist! You can ignore this warning if you are not using neoforge");
+        // Packages to de-duplicate, configured by the user or detected from the input jars
+        if (ignoredPackages != null)
+            duplicatePackages.addAll(ignoredPackages);
+        if (detectDuplicates) {
+            try (PhaseReport.Phase phase = report.start("detect-duplicates")) {
+                duplicatePackages.addAll(DuplicatePackageDetector.of(platformInputs, group, parallelism).detect());
+                phase.addFiles(countInputs()).addBytesIn(inputBytes());
+            }
         }
 
-        if (modFusionerExtension.getFabricConfiguration() != null && !FileTools.exists(fabricInput)) {
-            logger.warn("Fabric jar does not exist! You can ignore this warning if you are not using fabric");
+        // Merge the jars directly from zip to zip, without extracting them
+        if (!legacyMerge) {
+            CompressionReport compressionStats = new CompressionReport();
+            StreamingMergeAction streamingMerge = StreamingMergeAction.of(platformInputs, duplicatePackages, forgeMixins, group, parallelism, remapCache, compression, compressionThreads, compressionStats);
+            streamingMerge.setReport(report);
+            streamingMerge.setMemoryBudget(memoryBudget);
+            streamingMerge.setSpillThreshold(spillThreshold);
+            streamingMerge.setSpillDir(tempDir);
+            streamingMerge.setClassOptimizer(classOptimizer);
+            streamingMerge.setMemoryCache(memoryCache);
+            streamingMerge.merge(outJar);
+            compressionStats.log(compressionReport);
+            if (remapCache != null)
+                remapCache.trim();
+
+            try {
+                Files.setPosixFilePermissions(outJar.toPath(), Constants.filePerms);
+            } catch (Exception ignored) {}
+
+            return outJar;
         }
 
-        if (modFusionerExtension.getQuiltConfiguration() != null && !FileTools.exists(quiltInput)) {
-            logger.warn("Quilt jar does not exist! You can ignore this warning if you are not using quilt");
+        // Duplicate packages are composed into the platform relocations, so classes are only remapped once
+        try (PhaseReport.Phase phase = report.start("duplicate-processing")) {
+            processDuplicatePackages();
+            phase.addFiles(ignoredDuplicateRelocations.size());
         }
 
-        customInputs.forEach((key, value) -> {
-            if (!FileTools.exists(value)) {
-                logger.warn(key.getProjectName() + " jar does not exist! You can ignore this if you are not using custom configurations");
-            }
-        });
-
         // Remap the jar files to match their platform name
-        remapJars();
+        try (PhaseReport.Phase phase = report.start("remap")) {
+            remapJars();
+            phase.addFiles(countInputs()).addBytesIn(inputBytes());
+        }
 
         // Create the temporary processing directories
         File fabricTemp = FileTools.getOrCreate(new File(tempDir, "fabric-temp"));
@@ -142,55 +212,53 @@ public class JarMergeAction {
         // Extract the input jars to their processing directories
         logger.lifecycle("Unpacking input jars");
 
-        if (FileTools.exists(forgeInput)) {
-            jarManager.unpackJar(forgeInput, forgeTemp);
-        }
-        if (FileTools.exists(neoforgeInput)) {
-            jarManager.unpackJar(neoforgeInput, neoforgeTemp);
-        }
-        if (FileTools.exists(fabricInput)) {
-            jarManager.unpackJar(fabricInput, fabricTemp);
-        }
-        if (FileTools.exists(quiltInput)) {
-            jarManager.unpackJar(quiltInput, quiltTemp);
+        try (PhaseReport.Phase phase = report.start("unpack")) {
+            List<ParallelTasks.IOCallable<Void>> unpackTasks = new ArrayList<>();
+            unpackTasks.add(() -> unpackJar(forgeInput, forgeTemp));
+            unpackTasks.add(() -> unpackJar(neoforgeInput, neoforgeTemp));
+            unpackTasks.add(() -> unpackJar(fabricInput, fabricTemp));
+            unpackTasks.add(() -> unpackJar(quiltInput, quiltTemp));
+            customTemps.forEach((key, value) -> value.forEach((k, v) -> unpackTasks.add(() -> unpackJar(k, v))));
+            ParallelTasks.invokeAll(parallelism, unpackTasks);
+            phase.addFiles(countInputs()).addBytesIn(remappedBytes()).addBytesOut(uncompressedBytes());
         }
 
-        customTemps.forEach((key, value) -> value.forEach((k, v) -> {
-            if (FileTools.exists(k)) {
-                try {
-                    jarManager.unpackJar(k, v);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
-        }));
-
         File mergedTemp = FileTools.getOrCreate(new File(tempDir, "merged-temp"));
-        processManifests(mergedTemp, forgeTemp, neoforgeTemp, fabricTemp, quiltTemp);
+        try (PhaseReport.Phase phase = report.start("manifest-merge")) {
+            processManifests(mergedTemp, forgeTemp, neoforgeTemp, fabricTemp, quiltTemp);
+            phase.addFiles(platformInputs.stream().filter(input -> input.getMetadata() != null && input.getMetadata().getManifest() != null).count());
+        }
 
-        FileTools.moveDirectory(forgeTemp, mergedTemp);
-        FileTools.moveDirectory(neoforgeTemp, mergedTemp);
-        FileTools.moveDirectory(fabricTemp, mergedTemp);
-        FileTools.moveDirectory(quiltTemp, mergedTemp);
+        // The processing directories, in merge order. Later directories replace duplicate files from earlier ones
+        List<File> mergeOrder = new ArrayList<>(Arrays.asList(forgeTemp, neoforgeTemp, fabricTemp, quiltTemp));
+        customTemps.values().forEach(temps -> mergeOrder.addAll(temps.values()));
 
-        for (Map.Entry<FusionerExtension.CustomConfiguration, Map<File, File>> entry : customTemps.entrySet()) {
-            for (Map.Entry<File, File> entry2 : entry.getValue().entrySet()) {
-                FileTools.moveDirectory(entry2.getValue(), mergedTemp);
-            }
+        try (PhaseReport.Phase phase = report.start("nested-jars")) {
+            deduplicateNestedJars(mergeOrder, phase);
         }
 
-        // Process duplicate packages and resources
-        logger.lifecycle("Processing duplicate packages and resources");
-        processDuplicatePackages();
-        removeDuplicatePackages(mergedTemp);
-        removeDuplicateResources(mergedTemp);
+        try (PhaseReport.Phase phase = report.start("move")) {
+            MoveReport moves = new MoveReport();
+            for (File dir : mergeOrder) {
+                FileTools.moveDirectory(dir, mergedTemp, parallelism, moves);
+            }
+
+            moves.log();
+            phase.addFiles(moves.getFiles() + moves.getDirectories()).addBytesIn(uncompressedBytes());
+        }
 
         // Clean the output jar if it exists
         FileUtils.deleteQuietly(outJar);
 
         // Repack the fully processed jars into a single jar
         logger.lifecycle("Fusing jars into single jar");
-        jarManager.remapAndPack(mergedTemp, outJar, relocations);
+        try (PhaseReport.Phase phase = report.start("pack")) {
+            jarManager.packJar(mergedTemp, outJar);
+            phase.addFiles(countInputs()).addBytesIn(uncompressedBytes()).addBytesOut(outJar.length());
+        }
+
+        if (remapCache != null)
+            remapCache.trim();
 
         try {
             Files.setPosixFilePermissions(outJar.toPath(), Constants.filePerms);
@@ -199,6 +267,86 @@ public class JarMergeAction {
         return outJar;
     }
 
+    /**
+     * Get all the input jars, in the order they should be merged, and read their metadata
+     * @return - List of platform inputs
+     * @throws IOException - Thrown if the metadata of an input jar cannot be read
+     */
+    private List<PlatformInput> readPlatformInputs() throws IOException {
+        Map<String, File> jars = new LinkedHashMap<>();
+        Map<String, Map<String, String>> relocations = new HashMap<>();
+        jars.put("forge", forgeInput);
+        relocations.put("forge", forgeRelocations);
+        jars.put("neoforge", neoforgeInput);
+        relocations.put("neoforge", neoforgeRelocations);
+        jars.put("fabric", fabricInput);
+        relocations.put("fabric", fabricRelocations);
+        jars.put("quilt", quiltInput);
+        relocations.put("quilt", quiltRelocations);
+        customInputs.forEach((key, value) -> {
+            jars.put(key.getProjectName(), value);
+            relocations.put(key.getProjectName(), key.getRelocations());
+        });
+
+        List<ParallelTasks.IOCallable<JarMetadata>> tasks = new ArrayList<>();
+        jars.values().forEach(jar -> tasks.add(() -> FileTools.exists(jar) ? JarMetadata.readShared(jar) : null));
+        List<JarMetadata> metadata = ParallelTasks.invokeAll(parallelism, tasks);
+
+        List<PlatformInput> inputs = new ArrayList<>();
+        int entries = 0;
+        long size = 0;
+        int i = 0;
+        for (Map.Entry<String, File> jar : jars.entrySet()) {
+            JarMetadata jarMetadata = metadata.get(i++);
+            inputs.add(PlatformInput.of(jar.getKey(), jar.getValue(), relocations.get(jar.getKey()), jarMetadata));
+
+            if (jarMetadata != null) {
+                entries += jarMetadata.getEntryCount();
+                size += jarMetadata.getSize();
+            }
+        }
+
+        logger.info("Merging " + metadata.stream().filter(Objects::nonNull).count() + " jars with " + entries + " entries (" + FileUtils.byteCountToDisplaySize(size) + ")");
+        return inputs;
+    }
+
+    /**
+     * @return - The number of entries in all the input jars, from their metadata
+     */
+    private long countInputs() {
+        return platformInputs.stream().filter(input -> input.getMetadata() != null).mapToLong(input -> input.getMetadata().getEntryCount()).sum();
+    }
+
+    /**
+     * @return - The size of all the input jars
+     */
+    private long inputBytes() {
+        return platformInputs.stream().filter(input -> input.getMetadata() != null).mapToLong(input -> input.getJar().length()).sum();
+    }
+
+    /**
+     * @return - The size of all the remapped jars
+     */
+    private long remappedBytes() {
+        long size = 0;
+        for (File jar : Arrays.asList(forgeInput, neoforgeInput, fabricInput, quiltInput)) {
+            if (FileTools.exists(jar))
+                size += jar.length();
+        }
+        for (File jar : customInputs.values()) {
+            if (FileTools.exists(jar))
+                size += jar.length();
+        }
+        return size;
+    }
+
+    /**
+     * @return - The uncompressed size of all the input jars, from their metadata
+     */
+    private long uncompressedBytes() {
+        return platformInputs.stream().filter(input -> input.getMetadata() != null).mapToLong(input -> input.getMetadata().getSize()).sum();
+    }
+
     /**
      * Clean the output directory before the task exists
      * @throws IOException - Thrown if an IO error occurs
@@ -221,16 +369,45 @@ public class JarMergeAction {
     public void remapJars() throws IOException {
         logger.lifecycle("Start processing input jars");
 
-        remapJar(forgeInput, "forge", forgeRelocations);
-        remapJar(neoforgeInput, "neoforge", neoforgeRelocations);
-        remapJar(fabricInput, "fabric", fabricRelocations);
-        remapJar(quiltInput, "quilt", quiltRelocations);
+        List<ParallelTasks.IOCallable<File>> tasks = new ArrayList<>();
+        tasks.add(() -> remapJar(forgeInput, "forge", forgeRelocations));
+        tasks.add(() -> remapJar(neoforgeInput, "neoforge", neoforgeRelocations));
+        tasks.add(() -> remapJar(fabricInput, "fabric", fabricRelocations));
+        tasks.add(() -> remapJar(quiltInput, "quilt", quiltRelocations));
 
+        List<Map.Entry<FusionerExtension.CustomConfiguration, File>> customEntries = new ArrayList<>();
         for (Map.Entry<FusionerExtension.CustomConfiguration, File> entry : customInputs.entrySet()) {
             if (FileTools.exists(entry.getValue())) {
-                remapCustomJar(entry.getKey(), entry.getValue());
+                customEntries.add(entry);
+                tasks.add(() -> remapCustomJar(entry.getKey(), entry.getValue()));
             }
         }
+
+        // The remapped jars are only applied once all tasks are done, so the tasks never share any state
+        List<File> remapped = ParallelTasks.invokeAll(parallelism, tasks);
+        forgeInput = remapped.get(0);
+        neoforgeInput = remapped.get(1);
+        fabricInput = remapped.get(2);
+        quiltInput = remapped.get(3);
+
+        for (int i = 0; i < customEntries.size(); i++) {
+            Map.Entry<FusionerExtension.CustomConfiguration, File> entry = customEntries.get(i);
+            customInputs.replace(entry.getKey(), entry.getValue(), remapped.get(4 + i));
+        }
+    }
+
+    /**
+     * Extract an input jar to its processing directory
+     * @param jarFile - The input jar
+     * @param workingDir - The processing directory
+     * @return - Nothing, the jar is extracted in place
+     * @throws IOException - Thrown if an io exception occurs
+     */
+    private Void unpackJar(File jarFile, File workingDir) throws IOException {
+        if (FileTools.exists(jarFile))
+            jarManager.unpackJar(jarFile, workingDir);
+
+        return null;
     }
 
     /**
@@ -238,97 +415,186 @@ public class JarMergeAction {
      * @param jarFile - The input jar
      * @param target - The identifier of the package names
      * @param relocations - List of packages to be moved around
+     * @return - The remapped jar, or the input jar if it doesn't exist
      * @throws IOException - Thrown if an io exception occurs
      */
-    private void remapJar(File jarFile, String target, Map<String, String> relocations) throws IOException {
+    private File remapJar(File jarFile, String target, Map<String, String> relocations) throws IOException {
         if (FileTools.exists(jarFile)) {
             File remappedJar = FileTools.createOrReCreateF(new File(tempDir, "temp" + target + "InMerging.jar"));
 
-            List<Relocation> jarRelocations = new ArrayList<>();
-            jarRelocations.add(new Relocation(group, target + "." + group));
+            Map<String, String> jarRelocations = new LinkedHashMap<>();
+            jarRelocations.put(group, target + "." + group);
             if (relocations != null)
-                jarRelocations.addAll(relocations.entrySet().stream().map(entry -> new Relocation(entry.getKey(), entry.getValue())).collect(ArrayList::new, ArrayList::add, ArrayList::addAll));
-
-            AtomicReference<String> architectury = new AtomicReference<>();
-            architectury.set(null);
+                jarRelocations.putAll(relocations);
 
-            JarFile jar = new JarFile(jarFile);
-            jar.stream().forEach(jarEntry -> {
-                if (jarEntry.isDirectory()) {
-                    if (jarEntry.getName().startsWith("architectury_inject")) {
-                        architectury.set(jarEntry.getName());
-                    }
-                } else {
-                    String firstDirectory = getFirstDirectory(jarEntry.getName());
-                    if (firstDirectory.startsWith("architectury_inject")) {
-                        architectury.set(firstDirectory);
-                    }
-                }
-            });
-            jar.close();
-
-            if (architectury.get() != null) {
-                jarRelocations.add(new Relocation(architectury.get(), target + "." + architectury.get()));
+            String architectury = getMetadata(jarFile).getArchitecturyPrefix();
+            if (architectury != null) {
+                jarRelocations.put(architectury, target + "." + architectury);
             }
 
-            jarManager.remapJar(jarFile, remappedJar, jarRelocations);
-
-            switch (target) {
-                case "forge":
-                    forgeInput = remappedJar;
-                    break;
-                case "neoforge":
-                    neoforgeInput = remappedJar;
-                    break;
-                case "fabric":
-                    fabricInput = remappedJar;
-                    break;
-                case "quilt":
-                    quiltInput = remappedJar;
-                    break;
+            try (PhaseReport.Phase phase = report.start("remap:" + target)) {
+                remapCachedJar(jarFile, remappedJar, target, composeRelocations(jarRelocations), relocations, architectury, ignoredDuplicateRelocations);
+                phase.addFiles(getMetadata(jarFile).getEntryCount()).addBytesIn(jarFile.length()).addBytesOut(remappedJar.length());
             }
+            return remappedJar;
         }
+
+        return jarFile;
     }
 
     /**
      * Remap a Custom Jar
      * @param configuration - The configuration of the custom package
      * @param jarFile - The input jar of the custom project to be processed
+     * @return - The remapped jar
      * @throws IOException - Thrown if an io exception occurs
      */
-    private void remapCustomJar(FusionerExtension.CustomConfiguration configuration, File jarFile) throws IOException {
+    private File remapCustomJar(FusionerExtension.CustomConfiguration configuration, File jarFile) throws IOException {
         String name = configuration.getProjectName();
         File remappedJar = FileTools.createOrReCreateF(new File(tempDir, "tempCustomInMerging_" + name + ".jar"));
 
-        List<Relocation> customRelocations = new ArrayList<>();
-        customRelocations.add(new Relocation(group, name + "." + group));
+        Map<String, String> customRelocations = new LinkedHashMap<>();
+        customRelocations.put(group, name + "." + group);
         if (configuration.getRelocations() != null)
-            customRelocations.addAll(configuration.getRelocations().entrySet().stream().map(entry -> new Relocation(entry.getKey(), entry.getValue())).collect(ArrayList::new, ArrayList::add, ArrayList::addAll));
+            customRelocations.putAll(configuration.getRelocations());
+
+        String architectury = getMetadata(jarFile).getArchitecturyPrefix();
+        if (architectury != null) {
+            customRelocations.put(architectury, name + "." + architectury);
+        }
+
+        try (PhaseReport.Phase phase = report.start("remap:" + name)) {
+            remapCachedJar(jarFile, remappedJar, name, composeRelocations(customRelocations), configuration.getRelocations(), architectury, ignoredDuplicateRelocations);
+            phase.addFiles(getMetadata(jarFile).getEntryCount()).addBytesIn(jarFile.length()).addBytesOut(remappedJar.length());
+        }
+        return remappedJar;
+    }
+
+    /**
+     * Get the metadata of an original input jar
+     * @param jarFile - The input jar
+     * @return - The metadata read at the start of the merge
+     */
+    private JarMetadata getMetadata(File jarFile) {
+        return platformInputs.stream()
+                .filter(input -> jarFile.equals(input.getJar()) && input.getMetadata() != null)
+                .map(PlatformInput::getMetadata)
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("No metadata was read for " + jarFile.getName()));
+    }
+
+    /**
+     * Combine the relocations of a jar with the duplicate package relocations, so the jar only needs to be remapped once
+     * @param relocations - The relocations of the jar, in the order they should be applied
+     * @return - The combined relocations
+     */
+    private List<Relocation> composeRelocations(Map<String, String> relocations) {
+        return PackageRelocator.compose(relocations, ignoredDuplicateRelocations).entrySet().stream()
+                .map(entry -> new Relocation(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Remap a jar, or reuse the result of an earlier run from the remap cache
+     * @param jarFile - The input jar
+     * @param remappedJar - The output jar
+     * @param target - The identifier of the package names
+     * @param relocations - The relocations to apply
+     * @param settings - The settings the relocations were built from. Used to identify the cached jar
+     * @throws IOException - Thrown if an io exception occurs
+     */
+    private void remapCachedJar(File jarFile, File remappedJar, String target, List<Relocation> relocations, Object... settings) throws IOException {
+        if (remapCache == null) {
+            remapOptimizedJar(jarFile, remappedJar, target, relocations);
+            return;
+        }
 
-        AtomicReference<String> architectury = new AtomicReference<>();
-        architectury.set(null);
+        String cacheKey = RemapCache.key(memoryCache, jarFile, CACHE_FORMAT, group, target, classOptimizer, Arrays.toString(settings));
+
+        // Merges running at the same time, for example of several fusion targets, wait for each other and share the result
+        RemapCache.exclusive(cacheKey, () -> {
+            File cached = remapCache.get(cacheKey);
+            if (cached != null) {
+                logger.info("Using cached remapped jar for " + jarFile.getName());
+                FileTools.linkOrCopy(cached, remappedJar);
+                return null;
+            }
+
+            remapOptimizedJar(jarFile, remappedJar, target, relocations);
+            remapCache.put(cacheKey, remappedJar);
+            return null;
+        });
+    }
+
+    /**
+     * Optimize the classes of a jar, and then remap it
+     * @param jarFile - The input jar
+     * @param remappedJar - The output jar
+     * @param target - The identifier of the package names
+     * @param relocations - The relocations to apply
+     * @throws IOException - Thrown if an io exception occurs
+     */
+    private void remapOptimizedJar(File jarFile, File remappedJar, String target, List<Relocation> relocations) throws IOException {
+        File inputJar = optimizeJar(jarFile, target);
+        jarManager.remapJar(inputJar, remappedJar, relocations);
 
-        JarFile jar = new JarFile(jarFile);
-        jar.stream().forEach(jarEntry -> {
-            if (jarEntry.isDirectory()) {
-                if (jarEntry.getName().startsWith("architectury_inject")) {
-                    architectury.set(jarEntry.getName());
+        if (inputJar != jarFile)
+            Files.deleteIfExists(inputJar.toPath());
+    }
+
+    /**
+     * Remove debug attributes from the classes of an input jar, before the jar manager relocates it. Package rules
+     * are matched against the class names of the input jar, the same way the streaming merge matches them.
+     * Other entries are copied without decompressing them
+     * @param jarFile - The input jar
+     * @param target - The identifier of the package names
+     * @return - The optimized jar, or the input jar when the optimizer is disabled
+     * @throws IOException - Thrown if an io exception occurs
+     */
+    private File optimizeJar(File jarFile, String target) throws IOException {
+        if (!classOptimizer.isEnabled())
+            return jarFile;
+
+        File optimizedJar = FileTools.createOrReCreateF(new File(tempDir, "temp" + target + "Optimizing.jar"));
+        long bytesIn = 0;
+        long bytesOut = 0;
+        int optimized = 0;
+
+        try (PhaseReport.Phase phase = report.start("optimize:" + target);
+             ZipFile zip = new ZipFile(jarFile);
+             ZipArchiveOutputStream out = new ZipArchiveOutputStream(optimizedJar)) {
+            for (ZipArchiveEntry entry : Collections.list(zip.getEntriesInPhysicalOrder())) {
+                String name = entry.getName();
+                if (entry.isDirectory() || !name.endsWith(".class") || !classOptimizer.appliesTo(name.substring(0, name.length() - 6))) {
+                    out.addRawArchiveEntry(entry, zip.getRawInputStream(entry));
+                    continue;
                 }
-            } else {
-                String firstDirectory = getFirstDirectory(jarEntry.getName());
-                if (firstDirectory.startsWith("architectury_inject")) {
-                    architectury.set(firstDirectory);
+
+                byte[] data;
+                try (InputStream stream = zip.getInputStream(entry)) {
+                    data = IOUtils.toByteArray(stream);
                 }
+                byte[] result = classOptimizer.optimize(data);
+
+                ZipArchiveEntry optimizedEntry = new ZipArchiveEntry(name);
+                optimizedEntry.setTime(entry.getTime());
+                out.putArchiveEntry(optimizedEntry);
+                out.write(result);
+                out.closeArchiveEntry();
+
+                bytesIn += data.length;
+                bytesOut += result.length;
+                optimized++;
             }
-        });
-        jar.close();
 
-        if (architectury.get() != null) {
-            customRelocations.add(new Relocation(architectury.get(), name + "." + architectury.get()));
+            phase.addFiles(optimized).addBytesIn(bytesIn).addBytesOut(bytesOut);
         }
 
-        jarManager.remapJar(jarFile, remappedJar, customRelocations);
-        customInputs.replace(configuration, jarFile, remappedJar);
+        if (optimized > 0)
+            logger.lifecycle("Optimized " + optimized + " " + target + " classes: " + bytesIn / 1024 + "KB -> " + bytesOut / 1024
+                    + "KB (" + String.format(Locale.ROOT, "%.1f", 100.0 * (bytesIn - bytesOut) / bytesIn) + "% smaller)");
+
+        return optimizedJar;
     }
 
     /**
@@ -337,24 +603,35 @@ public class JarMergeAction {
      * @param neoforgeTemps - The neoforge processing directory
      * @param fabricTemps - The fabric processing directory
      * @param quiltTemps - The quilt processing directory
+     * @return - The amount of text files that were checked
      * @throws IOException - Thrown if an IO error occurs
      */
-    private void remapResources(File forgeTemps, File neoforgeTemps, File fabricTemps, File quiltTemps) throws IOException {
+    private int remapResources(File forgeTemps, File neoforgeTemps, File fabricTemps, File quiltTemps) throws IOException {
         logger.lifecycle("Start Remapping Resources");
-        remapJarResources(forgeInput, "forge", forgeTemps, forgeRelocations);
-        remapJarResources(neoforgeInput, "neoforge", neoforgeTemps, neoforgeRelocations);
-        remapJarResources(fabricInput, "fabric", fabricTemps, fabricRelocations);
-        remapJarResources(quiltInput, "quilt", quiltTemps, quiltRelocations);
+
+        List<ParallelTasks.IOCallable<ResourceIndex>> tasks = new ArrayList<>();
+        tasks.add(() -> remapJarResources(forgeInput, "forge", forgeTemps, forgeRelocations));
+        tasks.add(() -> remapJarResources(neoforgeInput, "neoforge", neoforgeTemps, neoforgeRelocations));
+        tasks.add(() -> remapJarResources(fabricInput, "fabric", fabricTemps, fabricRelocations));
+        tasks.add(() -> remapJarResources(quiltInput, "quilt", quiltTemps, quiltRelocations));
 
         for (Map.Entry<FusionerExtension.CustomConfiguration, Map<File, File>> entry : customTemps.entrySet()) {
             for (Map.Entry<File, File> entry2 : entry.getValue().entrySet()) {
                 if (entry2.getKey() != null && entry2.getKey().exists()) {
                     File customTemps = entry2.getValue();
                     String name = entry.getKey().getProjectName();
-                    remapJarResources(null, name, customTemps, entry.getKey().getRelocations());
+                    tasks.add(() -> remapJarResources(null, name, customTemps, entry.getKey().getRelocations()));
                 }
             }
         }
+
+        List<ResourceIndex> indexes = ParallelTasks.invokeAll(parallelism, tasks);
+
+        // Only the forge jar detects mixins, so only apply its result
+        if (indexes.get(0) != null)
+            forgeMixins = indexes.get(0).getMixins(false).stream().map(ResourceIndex.Resource::getName).collect(Collectors.toList());
+
+        return indexes.stream().filter(Objects::nonNull).mapToInt(index -> index.getTextFiles().size()).sum();
     }
 
     /**
@@ -363,66 +640,113 @@ public class JarMergeAction {
      * @param identifier - The group identifier of the packages
      * @param workingDir - The processing directory
      * @param relocations - List of packages that have been relocated
+     * @return - The index of the processed resources, or null if the jar was not processed
      * @throws IOException - Thrown if an IO error occurs
      */
-    private void remapJarResources(File jar, String identifier, File workingDir, Map<String, String> relocations) throws IOException {
+    private ResourceIndex remapJarResources(File jar, String identifier, File workingDir, Map<String, String> relocations) throws IOException {
         if (jar != null && !jar.exists())
-            return;
+            return null;
 
         if (relocations == null) relocations = new HashMap<>();
-        for (File file : embeddedJars(workingDir)) {
-            File remappedFile = new File(file.getParentFile(), identifier + "-" + file.getName());
-            relocations.put(file.getName(), remappedFile.getName());
-            file.renameTo(remappedFile);
-        }
+        ResourceIndex index = ResourceIndex.of(workingDir);
 
-        for (File file : getPlatformServices(workingDir, group)) {
-            File remappedFile = new File(file.getParentFile(), identifier + "." + file.getName());
-            relocations.put(file.getName(), remappedFile.getName());
-            file.renameTo(remappedFile);
+        for (ResourceIndex.Resource resource : index.getEmbeddedJars()) {
+            renameResource(index, resource, identifier + "-", relocations);
         }
 
-        if (identifier.equalsIgnoreCase("forge"))
-            forgeMixins = new ArrayList<>();
-
-        for (File file : getMixins(workingDir, !identifier.equalsIgnoreCase("forge"))) {
-            File remappedFile = new File(file.getParentFile(), identifier + "-" + file.getName());
-            relocations.put(file.getName(), remappedFile.getName());
-            file.renameTo(remappedFile);
+        for (ResourceIndex.Resource resource : index.getPlatformServices(group)) {
+            renameResource(index, resource, identifier + ".", relocations);
+        }
 
-            if (identifier.equalsIgnoreCase("forge"))
-                forgeMixins.add(remappedFile.getName());
+        for (ResourceIndex.Resource resource : index.getMixins(!identifier.equalsIgnoreCase("forge"))) {
+            renameResource(index, resource, identifier + "-", relocations);
         }
 
         if (!identifier.equalsIgnoreCase("forge")) {
-            for (File file : getAccessWideners(workingDir)) {
-                File remappedFile = new File(file.getParentFile(), identifier + "-" + file.getName());
-                relocations.put(file.getName(), remappedFile.getName());
-                file.renameTo(remappedFile);
+            for (ResourceIndex.Resource resource : index.getAccessWideners()) {
+                renameResource(index, resource, identifier + "-", relocations);
             }
         }
 
-        for (File file : getRefmaps(workingDir)) {
-            File remappedFile = new File(file.getParentFile(), identifier + "-" + file.getName());
-            relocations.put(file.getName(), remappedFile.getName());
-            file.renameTo(remappedFile);
+        for (ResourceIndex.Resource resource : index.getRefmaps()) {
+            renameResource(index, resource, identifier + "-", relocations);
         }
 
         relocations.put(group, identifier + "." + group);
         relocations.put(group.replace(".", "/"), identifier + "/" + group.replace(".", "/"));
 
-        for (File file : getTextFiles(workingDir)) {
-            List<String> lines = FileUtils.readLines(file, StandardCharsets.UTF_8);
-            StringBuilder sb = new StringBuilder();
+        TextRelocator textRelocator = TextRelocator.compile(memoryCache, relocations, removeDuplicateRelocationResources);
+        long textBytes = 0;
+        for (ResourceIndex.Resource resource : index.getTextFiles()) {
+            relocateTextFile(resource.getFile(), resource.getFormat(), textRelocator);
+            textBytes += resource.getSize();
+        }
 
-            for (String line : lines) {
-                for (HashMap.Entry<String, String> entry : relocations.entrySet()) {
-                    line = line.replace(entry.getKey(), entry.getValue());
-                }
-                sb.append(line).append("\n");
+        PhaseReport.Phase phase = PhaseReport.current();
+        if (phase != null)
+            phase.addFiles(index.getTextFiles().size()).addBytesIn(textBytes);
+
+        return index;
+    }
+
+    /**
+     * Remove nested jars that more than one platform bundles with the same contents, except for the first copy,
+     * and point the loader metadata that referenced the removed copies at the copy that is kept
+     * @param dirs - The processing directories, in merge order
+     * @param phase - The phase that records the checked jars
+     * @throws IOException - Thrown if an IO error occurs
+     */
+    private void deduplicateNestedJars(List<File> dirs, PhaseReport.Phase phase) throws IOException {
+        // Nested jars by their path in the merged jar. Like when moving, later directories replace earlier ones
+        Map<String, File> nestedJars = new LinkedHashMap<>();
+        for (File dir : dirs) {
+            List<File> jars = FileTools.embeddedJars(dir);
+            jars.sort(Comparator.comparing(File::getPath));
+            for (File jar : jars) {
+                nestedJars.put("META-INF/" + jar.getParentFile().getName() + "/" + jar.getName(), jar);
+            }
+        }
+
+        NestedJarDeduplicator deduplicator = new NestedJarDeduplicator();
+        long nestedBytes = 0;
+        for (Map.Entry<String, File> jar : nestedJars.entrySet()) {
+            try (InputStream stream = Files.newInputStream(jar.getValue().toPath())) {
+                nestedBytes += deduplicator.add(jar.getKey(), stream);
             }
-            FileUtils.write(file, sb.toString().trim(), StandardCharsets.UTF_8);
         }
+
+        phase.addFiles(nestedJars.size()).addBytesIn(nestedBytes).addBytesOut(nestedBytes - deduplicator.getSavedBytes());
+        Map<String, String> replacements = deduplicator.getReplacements();
+        if (replacements.isEmpty())
+            return;
+
+        TextRelocator relocator = TextRelocator.compile(memoryCache, replacements);
+        for (File dir : dirs) {
+            for (String duplicate : replacements.keySet()) {
+                Files.deleteIfExists(new File(dir, duplicate).toPath());
+            }
+
+            for (String metadata : NestedJarDeduplicator.METADATA_FILES) {
+                File file = new File(dir, metadata);
+                if (file.isFile())
+                    relocateTextFile(file, ResourceRewriter.Format.of(metadata), relocator);
+            }
+        }
+
+        deduplicator.log();
+    }
+
+    /**
+     * Rename a resource so it doesn't conflict with the same resource from other platforms
+     * @param index - The index the resource belongs to
+     * @param resource - The resource to rename
+     * @param prefix - The prefix to add to the file name
+     * @param relocations - The renamed file will be added to this list, so references to it can be updated
+     */
+    private static void renameResource(ResourceIndex index, ResourceIndex.Resource resource, String prefix, Map<String, String> relocations) {
+        String name = resource.getName();
+        if (index.rename(resource, prefix + name))
+            relocations.put(name, prefix + name);
     }
 
     /**
@@ -442,40 +766,11 @@ public class JarMergeAction {
      */
     public void processManifests(File mergedTemp, File forgeTemp, File neoforgeTemp, File fabricTemp, File quiltTemp) throws IOException {
         Manifest mergedManifest = new Manifest();
-        Manifest forgeManifest = new Manifest();
-        Manifest neoforgeManifest = new Manifest();
-        Manifest fabricManifest = new Manifest();
-        Manifest quiltManifest = new Manifest();
-        List<Manifest> customManifests = new ArrayList<>();
-
-        FileInputStream fileInputStream = null;
-        if (FileTools.exists(forgeInput)) forgeManifest.read(fileInputStream = new FileInputStream(new File(forgeTemp, "META-INF/MANIFEST.MF")));
-        if (fileInputStream != null) fileInputStream.close();
-        if (FileTools.exists(neoforgeInput)) neoforgeManifest.read(fileInputStream = new FileInputStream(new File(neoforgeTemp, "META-INF/MANIFEST.MF")));
-        if (fileInputStream != null) fileInputStream.close();
-        if (FileTools.exists(fabricInput)) fabricManifest.read(fileInputStream = new FileInputStream(new File(fabricTemp, "META-INF/MANIFEST.MF")));
-        if (fileInputStream != null) fileInputStream.close();
-        if (FileTools.exists(quiltInput)) quiltManifest.read(fileInputStream = new FileInputStream(new File(quiltTemp, "META-INF/MANIFEST.MF")));
-        if (fileInputStream != null) fileInputStream.close();
 
-        for (Map.Entry<FusionerExtension.CustomConfiguration, Map<File, File>> entry : customTemps.entrySet()) {
-            for (Map.Entry<File, File> entry2 : entry.getValue().entrySet()) {
-                Manifest manifest = new Manifest();
-                if (FileTools.exists(entry2.getKey())) {
-                    manifest.read(fileInputStream = new FileInputStream(new File(entry2.getValue(), "META-INF/MANIFEST.MF")));
-                    customManifests.add(manifest);
-                }
-                if (fileInputStream != null) fileInputStream.close();
-            }
-        }
-
-        forgeManifest.getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString()));
-        neoforgeManifest.getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString()));
-        fabricManifest.getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString()));
-        quiltManifest.getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString()));
-
-        for (Manifest manifest : customManifests) {
-            manifest.getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString()));
+        // The manifests were read with the metadata of the input jars, in merge order
+        for (PlatformInput input : platformInputs) {
+            if (input.getMetadata() != null && input.getMetadata().getManifest() != null)
+                input.getMetadata().getManifest().getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString()));
         }
 
         if (mergedManifest.getMainAttributes().getValue("MixinConfigs") != null) {
@@ -505,7 +800,9 @@ public class JarMergeAction {
             if (!forgeMixins.isEmpty()) mergedManifest.getMainAttributes().putValue("MixinConfigs", String.join(",", this.forgeMixins));
         }
 
-        remapResources(forgeTemp, neoforgeTemp, fabricTemp, quiltTemp);
+        try (PhaseReport.Phase phase = report.start("resource-remap")) {
+            phase.addFiles(remapResources(forgeTemp, neoforgeTemp, fabricTemp, quiltTemp));
+        }
 
         if (this.forgeMixins != null && mergedManifest.getMainAttributes().getValue("MixinConfigs") == null) {
             logger.debug("Couldn't detect forge mixins. You can ignore this if you are not using mixins with forge.\n" +
@@ -535,6 +832,7 @@ public class JarMergeAction {
         FileOutputStream outputStream = new FileOutputStream(new File(mergedTemp, "META-INF/MANIFEST.MF"));
         mergedManifest.write(outputStream);
         outputStream.close();
+        relocateTextFile(new File(mergedTemp, "META-INF/MANIFEST.MF"), ResourceRewriter.Format.TEXT, TextRelocator.compile(memoryCache, removeDuplicateRelocationResources));
     }
 
     /**
@@ -547,8 +845,8 @@ public class JarMergeAction {
      * Build a list of duplicate packages that need to be removed from the final jar
      */
     private void processDuplicatePackages() {
-        if (ignoredPackages != null) {
-            for (String duplicate : ignoredPackages) {
+        if (!duplicatePackages.isEmpty()) {
+            for (String duplicate : duplicatePackages) {
                 String duplicatePath = duplicate.replace(".", "/");
 
                 if (FileTools.exists(forgeInput)) {
@@ -571,13 +869,11 @@ public class JarMergeAction {
                     removeDuplicateRelocationResources.put("quilt/" + duplicatePath, duplicatePath);
                 }
 
-                for (Map.Entry<FusionerExtension.CustomConfiguration, Map<File, File>> entry : customTemps.entrySet()) {
-                    for (Map.Entry<File, File> entry2 : entry.getValue().entrySet()) {
-                        if (FileTools.exists(entry2.getKey())) {
-                            String name = entry.getKey().getProjectName();
-                            ignoredDuplicateRelocations.put(name + "." + duplicate, duplicate);
-                            removeDuplicateRelocationResources.put(name + "/" + duplicatePath, duplicatePath);
-                        }
+                for (Map.Entry<FusionerExtension.CustomConfiguration, File> entry : customInputs.entrySet()) {
+                    if (FileTools.exists(entry.getValue())) {
+                        String name = entry.getKey().getProjectName();
+                        ignoredDuplicateRelocations.put(name + "." + duplicate, duplicate);
+                        removeDuplicateRelocationResources.put(name + "/" + duplicatePath, duplicatePath);
                     }
                 }
             }
@@ -587,43 +883,16 @@ public class JarMergeAction {
     }
 
     /**
-     * Relocate duplicate packages from their original location, to a single location
-     * @param mergedTemps - The processing directory
-     * @throws IOException - Thrown if an IO exception occurs
-     */
-    private void removeDuplicatePackages(File mergedTemps) throws IOException {
-        for (Map.Entry<String, String> entry : ignoredDuplicateRelocations.entrySet()) {
-            File baseFile = new File(mergedTemps, entry.getKey().replace(".", "/") + "/");
-            String name = entry.getValue().replace(".", "/") + "/";
-            File outFile = new File(mergedTemps, name);
-
-            if (outFile.isDirectory())
-                outFile.mkdirs();
-
-            FileTools.moveDirectory(baseFile, outFile);
-            relocations.add(new Relocation(entry.getKey(), entry.getValue()));
-        }
-    }
-
-    /**
-     * Remove duplicate resources files from extracted jars
-     * @param mergedTemps - The processing directory
+     * Apply text replacements to a file. The file is only written when something was replaced
+     * @param file - The file to process
+     * @param format - The format of the file, which decides which parts of it are relocated
+     * @param textRelocator - The replacements to apply
      * @throws IOException - Thrown if an IO error occurs
      */
-    public void removeDuplicateResources(File mergedTemps) throws IOException {
-        if (ignoredPackages != null) {
-            for (File file : getTextFiles(mergedTemps)) {
-                List<String> lines = FileUtils.readLines(file, StandardCharsets.UTF_8);
-                StringBuilder sb = new StringBuilder();
-
-                for (String line : lines) {
-                    for (HashMap.Entry<String, String> entry : removeDuplicateRelocationResources.entrySet()) {
-                        line = line.replace(entry.getKey(), entry.getValue());
-                    }
-                    sb.append(line).append("\n");
-                }
-                FileUtils.write(file, sb.toString().trim() + "\n", StandardCharsets.UTF_8);
-            }
-        }
+    private static void relocateTextFile(File file, ResourceRewriter.Format format, TextRelocator textRelocator) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        byte[] relocated = ResourceRewriter.rewrite(format, data, textRelocator);
+        if (relocated != data)
+            Files.write(file.toPath(), relocated);
     }
 }
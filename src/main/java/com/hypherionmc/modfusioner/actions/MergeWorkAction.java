@@ -0,0 +1,190 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.actions;
+
+import com.hypherionmc.modfusioner.Constants;
+import com.hypherionmc.modfusioner.plugin.FusionerCacheService;
+import com.hypherionmc.modfusioner.plugin.FusionerExtension;
+import com.hypherionmc.modfusioner.plugin.ModFusionerPlugin;
+import com.hypherionmc.modfusioner.utils.ClassOptimizer;
+import com.hypherionmc.modfusioner.utils.CompressionPolicy;
+import com.hypherionmc.modfusioner.utils.MemoryCache;
+import com.hypherionmc.modfusioner.utils.PhaseReport;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.logger;
+
+/**
+ * @author HypherionSA
+ * Runs the jar merge through the Gradle Worker API. All the settings are passed in as parameters, so the
+ * merge can run in parallel with other tasks, or in a separate worker process
+ */
+public abstract class MergeWorkAction implements WorkAction<MergeWorkAction.Parameters> {
+
+    @Override
+    public void execute() {
+        // The plugin isn't applied inside a worker process
+        if (ModFusionerPlugin.logger == null)
+            ModFusionerPlugin.logger = Logging.getLogger(ModFusionerPlugin.class);
+
+        long time = System.currentTimeMillis();
+        Parameters parameters = getParameters();
+        Map<String, File> platformJars = parameters.getPlatformJars().get();
+        Map<String, Map<String, String>> relocations = parameters.getRelocations().get();
+
+        // Custom configurations are rebuilt from their project name and relocations
+        Map<FusionerExtension.CustomConfiguration, File> customJars = new LinkedHashMap<>();
+        Map<String, Map<String, String>> customRelocations = parameters.getCustomRelocations().get();
+        parameters.getCustomJars().get().forEach((projectName, jar) -> {
+            FusionerExtension.CustomConfiguration configuration = new FusionerExtension.CustomConfiguration();
+            configuration.setProjectName(projectName);
+            customRelocations.getOrDefault(projectName, new HashMap<>()).forEach(configuration::addRelocation);
+            customJars.put(configuration, jar);
+        });
+
+        File mergedJar = parameters.getOutputJar().get().getAsFile();
+
+        // The cache outlives this action. A worker process can't reach the build service, so it keeps its own cache until gradle stops the process
+        boolean sharedCache = parameters.getCacheService().isPresent();
+        MemoryCache memoryCache = sharedCache ? parameters.getCacheService().get().getCache() : MemoryCache.forProcess(parameters.getMemoryCacheSize().get());
+
+        // Set up the jar merge action
+        JarMergeAction mergeAction = JarMergeAction.of(
+                customJars,
+                parameters.getDuplicateRelocations().getOrNull(),
+                parameters.getPackageGroup().getOrNull(),
+                parameters.getTempDir().get().getAsFile(),
+                mergedJar.getName()
+        );
+
+        mergeAction.setLegacyMerge(parameters.getLegacyMerge().get());
+        mergeAction.setParallelism(parameters.getParallelism().get());
+        mergeAction.setRemapCacheSize(parameters.getRemapCacheSize().get());
+        mergeAction.setCompression(parameters.getCompression().get());
+        mergeAction.setCompressionReport(parameters.getCompressionReport().get());
+        mergeAction.setCompressionThreads(parameters.getCompressionThreads().get());
+        mergeAction.setDetectDuplicates(parameters.getDetectDuplicates().get());
+        mergeAction.setReport(parameters.getReport().get());
+        mergeAction.setMemoryBudget(parameters.getMemoryBudget().get());
+        mergeAction.setSpillThreshold(parameters.getSpillThreshold().get());
+        mergeAction.setClassOptimizer(parameters.getClassOptimizer().get());
+        mergeAction.setMemoryCache(memoryCache);
+
+        // Forge
+        mergeAction.setForgeInput(platformJars.get("forge"));
+        mergeAction.setForgeRelocations(relocations.getOrDefault("forge", new HashMap<>()));
+        mergeAction.setForgeMixins(parameters.getForgeMixins().get());
+
+        // NeoForge
+        mergeAction.setNeoforgeInput(platformJars.get("neoforge"));
+        mergeAction.setNeoforgeRelocations(relocations.getOrDefault("neoforge", new HashMap<>()));
+
+        // Fabric
+        mergeAction.setFabricInput(platformJars.get("fabric"));
+        mergeAction.setFabricRelocations(relocations.getOrDefault("fabric", new HashMap<>()));
+
+        // Quilt
+        mergeAction.setQuiltInput(platformJars.get("quilt"));
+        mergeAction.setQuiltRelocations(relocations.getOrDefault("quilt", new HashMap<>()));
+
+        try {
+            // Merge them jars
+            Path tempMergedJarPath = mergeAction.mergeJars(false).toPath();
+
+            // Move the merged jar to the specified output directory
+            Files.move(tempMergedJarPath, mergedJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.setPosixFilePermissions(mergedJar.toPath(), Constants.filePerms);
+            } catch (UnsupportedOperationException | IOException | SecurityException ignored) { }
+
+            // Cleanup
+            mergeAction.clean();
+
+            // Write the time and allocations of every phase
+            File reportFile = parameters.getReportFile().get().getAsFile();
+            mergeAction.getReport().write(reportFile);
+            logger.info("Phase report written to " + reportFile);
+            if (!sharedCache)
+                memoryCache.logStats();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        logger.lifecycle("Fused jar created in " + (System.currentTimeMillis() - time) / 1000.0 + " seconds.");
+    }
+
+    /**
+     * Settings of the merge. Only serializable values are used, so they can be sent to a worker process
+     */
+    public interface Parameters extends WorkParameters {
+
+        // Input jars of the built-in platforms, keyed by platform name
+        MapProperty<String, File> getPlatformJars();
+
+        // Relocations of the built-in platforms, keyed by platform name
+        MapProperty<String, Map<String, String>> getRelocations();
+
+        // Input jars and relocations of custom configurations, keyed by project name
+        MapProperty<String, File> getCustomJars();
+        MapProperty<String, Map<String, String>> getCustomRelocations();
+
+        // Forge Mixin Configs
+        ListProperty<String> getForgeMixins();
+
+        // Packages that will be de-duplicated
+        ListProperty<String> getDuplicateRelocations();
+        Property<Boolean> getDetectDuplicates();
+
+        // Settings
+        Property<String> getPackageGroup();
+        DirectoryProperty getTempDir();
+        RegularFileProperty getOutputJar();
+        Property<Boolean> getLegacyMerge();
+        Property<Integer> getParallelism();
+        Property<CompressionPolicy> getCompression();
+        Property<Boolean> getCompressionReport();
+        Property<Integer> getCompressionThreads();
+        Property<ClassOptimizer> getClassOptimizer();
+
+        // The maximum size of the remap cache in bytes. 0 disables the cache
+        Property<Long> getRemapCacheSize();
+
+        // The memory used for merged entries, and the size above which entries are written to disk, in bytes
+        Property<Long> getMemoryBudget();
+        Property<Integer> getSpillThreshold();
+
+        // The in memory cache of the daemon. Only set when the merge runs inside the gradle daemon
+        Property<FusionerCacheService> getCacheService();
+
+        // The maximum size of the in memory cache, in bytes. 0 disables the cache
+        Property<Long> getMemoryCacheSize();
+
+        // Phases measured before the merge, and the file the complete report is written to
+        Property<PhaseReport> getReport();
+        RegularFileProperty getReportFile();
+    }
+}
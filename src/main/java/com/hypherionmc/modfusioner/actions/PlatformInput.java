@@ -0,0 +1,56 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.actions;
+
+import com.hypherionmc.modfusioner.utils.JarMetadata;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * @author HypherionSA
+ * A single platform jar taking part in the merge, along with the identifier used
+ * to relocate its packages and resources
+ */
+@Getter
+@RequiredArgsConstructor(staticName = "of")
+public class PlatformInput {
+
+    // The identifier of the platform. For example: forge, fabric or the name of a custom project
+    private final String name;
+
+    // The jar file of the platform
+    private final File jar;
+
+    // User defined packages that should be relocated
+    private final Map<String, String> relocations;
+
+    // Metadata read from the central directory of the jar. Null if the jar doesn't exist
+    private final JarMetadata metadata;
+
+    /**
+     * Check if this input is the forge jar. Forge handles mixins and access transformers differently
+     * @return - True if this is the forge jar
+     */
+    public boolean isForge() {
+        return name.equalsIgnoreCase("forge");
+    }
+
+    /**
+     * Get a copy of the user defined relocations, so they can be safely extended
+     * @return - Ordered copy of the relocations
+     */
+    public Map<String, String> copyRelocations() {
+        return relocations == null ? new LinkedHashMap<>() : new LinkedHashMap<>(relocations);
+    }
+}
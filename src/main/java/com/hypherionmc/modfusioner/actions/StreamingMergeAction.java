@@ -0,0 +1,793 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.actions;
+
+import com.hypherionmc.modfusioner.Constants;
+import com.hypherionmc.modfusioner.utils.ClassOptimizer;
+import com.hypherionmc.modfusioner.utils.CompressionPolicy;
+import com.hypherionmc.modfusioner.utils.CompressionReport;
+import com.hypherionmc.modfusioner.utils.EntryStore;
+import com.hypherionmc.modfusioner.utils.FileChecks;
+import com.hypherionmc.modfusioner.utils.FileTools;
+import com.hypherionmc.modfusioner.utils.MemoryCache;
+import com.hypherionmc.modfusioner.utils.NestedJarDeduplicator;
+import com.hypherionmc.modfusioner.utils.ParallelTasks;
+import com.hypherionmc.modfusioner.utils.PhaseReport;
+import com.hypherionmc.modfusioner.utils.RemapCache;
+import com.hypherionmc.modfusioner.utils.ResourceIndex;
+import com.hypherionmc.modfusioner.utils.ResourceRewriter;
+import com.hypherionmc.modfusioner.utils.TextRelocator;
+import com.hypherionmc.modfusioner.utils.PackageRelocator;
+import lombok.RequiredArgsConstructor;
+import lombok.Setter;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.io.IOUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.logger;
+
+/**
+ * @author HypherionSA
+ * Zip to zip merge engine. Entries are read directly from the input jars, relocated and rewritten
+ * in memory, compressed in parallel and then written straight to the output jar, without extracting anything to disk.
+ * Produces the same layout as the directory based merge in {@link JarMergeAction}
+ */
+@RequiredArgsConstructor(staticName = "of")
+public class StreamingMergeAction {
+
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+    // Changing the cached format, or the output of this class, requires bumping this value
+    private static final String CACHE_FORMAT = "streaming-6";
+
+    // Inputs, in the order they should be merged. Later inputs replace duplicate files from earlier ones
+    private final List<PlatformInput> inputs;
+
+    // Packages that will be de-duplicated
+    private final List<String> ignoredPackages;
+
+    // Mixins configured by the user for forge
+    private final List<String> forgeMixins;
+
+    // Settings
+    private final String group;
+    private final int parallelism;
+    private final RemapCache remapCache;
+    private final CompressionPolicy compression;
+    private final int compressionThreads;
+
+    // Time and space used by each compression rule
+    private final CompressionReport compressionReport;
+
+    // Timing and allocations of every phase of the merge
+    @Setter private PhaseReport report = new PhaseReport();
+
+    // How much of the merged entries is kept in memory, and where the rest is written to
+    @Setter private long memoryBudget = EntryStore.DEFAULT_MEMORY_BUDGET;
+    @Setter private int spillThreshold = EntryStore.DEFAULT_SPILL_THRESHOLD;
+    @Setter private File spillDir;
+
+    // Debug attributes that are removed from classes, while they are relocated
+    @Setter private ClassOptimizer classOptimizer = ClassOptimizer.DISABLED;
+
+    // Remapped jars, input hashes and compiled relocations, kept between merges in the same process
+    @Setter private MemoryCache memoryCache = new MemoryCache(MemoryCache.DEFAULT_MAX_SIZE);
+
+    // Processing state
+    private EntryStore store;
+    private final Map<String, MergeEntry> mergedEntries = new LinkedHashMap<>();
+    private final List<Manifest> manifests = new ArrayList<>();
+    private final List<String> detectedForgeMixins = new ArrayList<>();
+
+    /**
+     * Merge all inputs into a single jar
+     * @param outJar - The jar file to write
+     * @return - The fully merged jar file
+     * @throws IOException - Thrown when an IO Exception occurs
+     */
+    public File merge(File outJar) throws IOException {
+        try (EntryStore entryStore = new EntryStore(memoryBudget, spillThreshold, spillDir)) {
+            store = entryStore;
+            mergeInputs(outJar);
+            entryStore.logStats();
+        } finally {
+            store = null;
+            mergedEntries.clear();
+        }
+        return outJar;
+    }
+
+    /**
+     * Process all the inputs and write the merged jar. The contents of the entries are held by the entry store while this runs
+     * @param outJar - The jar file to write
+     * @throws IOException - Thrown when an IO Exception occurs
+     */
+    private void mergeInputs(File outJar) throws IOException {
+        Map<String, String> duplicateClasses = new LinkedHashMap<>();
+        Map<String, String> duplicateResources = new LinkedHashMap<>();
+        processDuplicatePackages(duplicateClasses, duplicateResources);
+
+        List<ParallelTasks.IOCallable<PlatformResult>> tasks = new ArrayList<>();
+        for (PlatformInput input : inputs) {
+            if (!FileTools.exists(input.getJar()))
+                continue;
+
+            tasks.add(() -> {
+                logger.lifecycle("Processing " + input.getName() + " jar");
+                try (PhaseReport.Phase phase = report.start("remap:" + input.getName())) {
+                    PlatformResult result = processInput(input, duplicateClasses, duplicateResources);
+                    phase.addFiles(input.getMetadata().getEntryCount()).addBytesIn(input.getJar().length());
+                    if (result.optimizedClasses > 0)
+                        logger.lifecycle("Optimized " + result.optimizedClasses + " " + input.getName() + " classes: " + result.classBytesIn / 1024 + "KB -> "
+                                + result.classBytesOut / 1024 + "KB (" + String.format(Locale.ROOT, "%.1f", 100.0 * (result.classBytesIn - result.classBytesOut) / result.classBytesIn) + "% smaller)");
+                    return result;
+                }
+            });
+        }
+
+        // Results are combined in input order, so later inputs still replace duplicate files from earlier ones
+        try (PhaseReport.Phase phase = report.start("remap")) {
+            for (PlatformResult result : ParallelTasks.invokeAll(parallelism, tasks)) {
+                phase.addFiles(result.entries.size());
+                result.entries.forEach((name, entry) -> {
+                    MergeEntry replaced = mergedEntries.put(name, entry);
+                    if (replaced != null)
+                        replaced.release();
+                });
+                if (result.manifest != null)
+                    manifests.add(result.manifest);
+                detectedForgeMixins.addAll(result.forgeMixins);
+            }
+        }
+
+        try (PhaseReport.Phase phase = report.start("nested-jars")) {
+            deduplicateNestedJars(phase);
+        }
+
+        Manifest manifest;
+        try (PhaseReport.Phase phase = report.start("manifest-merge")) {
+            manifest = mergeManifests();
+            phase.addFiles(manifests.size());
+        }
+
+        logger.lifecycle("Fusing jars into single jar");
+        try (PhaseReport.Phase phase = report.start("pack")) {
+            writeJar(outJar, manifest, TextRelocator.compile(memoryCache, duplicateResources));
+            phase.addFiles(mergedEntries.size() + 1).addBytesOut(outJar.length());
+        }
+    }
+
+    /**
+     * Store nested jars that more than one platform bundles with the same contents only once, and point the
+     * loader metadata that referenced the removed copies at the copy that is kept
+     * @param phase - The phase that records the checked jars
+     * @throws IOException - Thrown if an IO error occurs
+     */
+    private void deduplicateNestedJars(PhaseReport.Phase phase) throws IOException {
+        NestedJarDeduplicator deduplicator = new NestedJarDeduplicator();
+        long nestedBytes = 0;
+        for (Map.Entry<String, MergeEntry> entry : mergedEntries.entrySet()) {
+            if (!NestedJarDeduplicator.isNestedJar(entry.getKey()))
+                continue;
+
+            try (InputStream stream = entry.getValue().openContents()) {
+                nestedBytes += deduplicator.add(entry.getKey(), stream);
+                phase.addFiles(1);
+            }
+        }
+
+        phase.addBytesIn(nestedBytes).addBytesOut(nestedBytes - deduplicator.getSavedBytes());
+        Map<String, String> replacements = deduplicator.getReplacements();
+        if (replacements.isEmpty())
+            return;
+
+        for (String duplicate : replacements.keySet()) {
+            mergedEntries.remove(duplicate).release();
+        }
+
+        TextRelocator relocator = TextRelocator.compile(memoryCache, replacements);
+        for (String metadata : NestedJarDeduplicator.METADATA_FILES) {
+            MergeEntry entry = mergedEntries.get(metadata);
+            if (entry == null)
+                continue;
+
+            byte[] data;
+            try (InputStream stream = entry.openContents()) {
+                data = IOUtils.toByteArray(stream);
+            }
+
+            byte[] relocated = ResourceRewriter.rewrite(ResourceRewriter.Format.of(metadata), data, relocator);
+            if (relocated != data) {
+                mergedEntries.put(metadata, new MergeEntry(store.put(relocated), entry.time));
+                entry.release();
+            }
+        }
+
+        deduplicator.log();
+    }
+
+    /**
+     * Read, relocate and rewrite all the entries of a single input jar
+     * @param input - The platform being processed
+     * @param duplicateClasses - Relocations that move duplicate packages back to their original location
+     * @param duplicateResources - Text replacements for resources referencing duplicate packages
+     * @return - The processed entries of the jar
+     * @throws IOException - Thrown if an IO error occurs
+     */
+    private PlatformResult processInput(PlatformInput input, Map<String, String> duplicateClasses, Map<String, String> duplicateResources) throws IOException {
+        if (remapCache == null && !memoryCache.isEnabled())
+            return remapInput(input, duplicateClasses, duplicateResources);
+
+        String name = input.getName();
+        String architectury = input.getMetadata().getArchitecturyPrefix();
+        String cacheKey = RemapCache.key(memoryCache, input.getJar(), CACHE_FORMAT, group, name, input.getRelocations(), architectury, duplicateResources, classOptimizer);
+        String memoryKey = "platform-result:" + cacheKey;
+
+        // Merges running at the same time, for example of several fusion targets, wait for each other and share the result
+        return RemapCache.exclusive(cacheKey, () -> {
+            // Results of earlier merges in the same daemon are kept in memory, in the same format as the remap cache
+            byte[] held = memoryCache.get(memoryKey, byte[].class);
+            if (held != null) {
+                logger.info("Using " + name + " jar from memory");
+                return readResult(new ByteArrayInputStream(held));
+            }
+
+            File cached = remapCache == null ? null : remapCache.get(cacheKey);
+            if (cached != null) {
+                logger.info("Using cached " + name + " jar");
+                if (!memoryCache.fits(cached.length()))
+                    return readResult(new BufferedInputStream(new FileInputStream(cached)));
+
+                byte[] data = Files.readAllBytes(cached.toPath());
+                memoryCache.put(memoryKey, data, data.length);
+                return readResult(new ByteArrayInputStream(data));
+            }
+
+            PlatformResult result = remapInput(input, duplicateClasses, duplicateResources);
+            if (memoryCache.isEnabled()) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                writeResult(result, out);
+                byte[] data = out.toByteArray();
+                memoryCache.put(memoryKey, data, data.length);
+                if (remapCache != null)
+                    remapCache.put(cacheKey, stream -> stream.write(data));
+            } else {
+                remapCache.put(cacheKey, out -> writeResult(result, out));
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Relocate and rewrite all the entries of a single input jar, without using the remap cache
+     * @param input - The platform being processed
+     * @param duplicateClasses - Relocations that move duplicate packages back to their original location
+     * @param duplicateResources - Text replacements for resources referencing duplicate packages
+     * @return - The processed entries of the jar
+     * @throws IOException - Thrown if an IO error occurs
+     */
+    private PlatformResult remapInput(PlatformInput input, Map<String, String> duplicateClasses, Map<String, String> duplicateResources) throws IOException {
+        String name = input.getName();
+        PlatformResult result = new PlatformResult();
+        ResourceIndex index = ResourceIndex.empty();
+        Map<ResourceIndex.Resource, MergeEntry> resources = new LinkedHashMap<>();
+
+        // Text resources stay on the heap until they are relocated, everything else goes to the entry store right away
+        Map<ResourceIndex.Resource, byte[]> texts = new HashMap<>();
+
+        try (ZipFile zip = new ZipFile(input.getJar())) {
+            List<ZipArchiveEntry> entries = Collections.list(zip.getEntries());
+
+            Map<String, String> jarRelocations = new LinkedHashMap<>();
+            jarRelocations.put(group, name + "." + group);
+            jarRelocations.putAll(input.copyRelocations());
+
+            String architectury = input.getMetadata().getArchitecturyPrefix();
+            if (architectury != null)
+                jarRelocations.put(architectury, name + "." + architectury);
+
+            // The platform relocations and the duplicate package relocations are applied in a single pass
+            Map<String, String> relocations = PackageRelocator.compose(jarRelocations, duplicateClasses);
+            PackageRelocator relocator = PackageRelocator.compile(memoryCache, relocations);
+
+            // Classes where every relocated name maps back to itself are copied without being remapped
+            Map<String, String> classPatterns = new LinkedHashMap<>();
+            relocations.forEach((from, to) -> {
+                classPatterns.put(from, to);
+                classPatterns.put(from.replace(".", "/"), to.replace(".", "/"));
+            });
+            TextRelocator classMatcher = TextRelocator.compile(memoryCache, classPatterns);
+
+            for (ZipArchiveEntry entry : entries) {
+                String entryName = entry.getName();
+                if (entry.isDirectory() || isSignatureFile(entryName) || entryName.equals(MANIFEST))
+                    continue;
+
+                if (entryName.endsWith(".class")) {
+                    byte[] data = readEntry(zip, entry);
+                    String className = entryName.substring(0, entryName.length() - 6);
+                    boolean optimize = classOptimizer.appliesTo(className);
+                    if (!optimize && !classMatcher.changes(data) && canCopyRaw(entry)) {
+                        result.entries.put(entryName, readRawEntry(zip, entry));
+                        continue;
+                    }
+
+                    className = relocator.map(className);
+                    if (optimize) {
+                        result.optimizedClasses++;
+                        result.classBytesIn += data.length;
+                        data = relocator.relocateClass(data, classOptimizer);
+                        result.classBytesOut += data.length;
+                    } else {
+                        data = relocator.relocateClass(data);
+                    }
+                    result.entries.put(className + ".class", new MergeEntry(store.put(data), entry.getTime()));
+                    continue;
+                }
+
+                // Binary resources are never rewritten, so only the start is needed to classify them
+                byte[] data;
+                try (InputStream stream = zip.getInputStream(entry)) {
+                    byte[] head = new byte[ResourceIndex.BINARY_CHECK_SIZE];
+                    int read = IOUtils.read(stream, head);
+
+                    if (FileChecks.isBinary(Arrays.copyOf(head, read)) && !entryName.endsWith(".json") && canCopyRaw(entry)) {
+                        ResourceIndex.Resource resource = index.add(relocator.relocatePath(entryName), Arrays.copyOf(head, read), entry.getSize());
+                        resources.put(resource, readRawEntry(zip, entry));
+                        continue;
+                    }
+
+                    ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max((int) entry.getSize(), read));
+                    out.write(head, 0, read);
+                    IOUtils.copy(stream, out);
+                    data = out.toByteArray();
+                }
+
+                ResourceIndex.Resource resource = index.add(relocator.relocatePath(entryName), data);
+                if (resource.isText()) {
+                    texts.put(resource, data);
+                    resources.put(resource, new MergeEntry(null, entry.getTime()));
+                } else {
+                    resources.put(resource, new MergeEntry(store.put(data), entry.getTime()));
+                }
+            }
+        }
+
+        // The manifest was already read with the metadata of the jar
+        result.manifest = input.getMetadata().getManifest();
+
+        Map<String, String> textRelocations = input.copyRelocations();
+        renameResources(input, index, textRelocations, result.forgeMixins);
+        textRelocations.put(group, name + "." + group);
+        textRelocations.put(group.replace(".", "/"), name + "/" + group.replace(".", "/"));
+        TextRelocator textRelocator = TextRelocator.compile(memoryCache, textRelocations, duplicateResources);
+
+        for (Map.Entry<ResourceIndex.Resource, MergeEntry> resource : resources.entrySet()) {
+            MergeEntry entry = resource.getValue();
+            byte[] text = texts.get(resource.getKey());
+            if (text != null)
+                entry.data = store.put(ResourceRewriter.rewrite(resource.getKey().getFormat(), text, textRelocator));
+
+            result.entries.put(resource.getKey().getPath(), entry);
+        }
+
+        return result;
+    }
+
+    private static byte[] readEntry(ZipFile zip, ZipArchiveEntry entry) throws IOException {
+        try (InputStream stream = zip.getInputStream(entry)) {
+            return IOUtils.toByteArray(stream);
+        }
+    }
+
+    /**
+     * Read the compressed data of an entry, so it can be written to the output jar without inflating it again
+     * @param zip - The input jar
+     * @param entry - The entry to read
+     * @return - The raw entry
+     * @throws IOException - Thrown if an IO error occurs
+     */
+    private MergeEntry readRawEntry(ZipFile zip, ZipArchiveEntry entry) throws IOException {
+        EntryStore.Payload raw;
+        try (InputStream stream = zip.getRawInputStream(entry)) {
+            raw = store.put(stream, entry.getCompressedSize());
+        }
+        return MergeEntry.raw(raw, entry.getTime(), entry.getMethod(), entry.getCrc(), entry.getSize());
+    }
+
+    private static boolean canCopyRaw(ZipArchiveEntry entry) {
+        return (entry.getMethod() == ZipEntry.STORED || entry.getMethod() == ZipEntry.DEFLATED)
+                && entry.getSize() >= 0 && entry.getCrc() >= 0 && entry.getCompressedSize() >= 0;
+    }
+
+    /**
+     * Store a processed jar in the remap cache
+     * @param result - The processed jar
+     * @param stream - The cache entry to write to
+     * @throws IOException - Thrown if an IO error occurs
+     */
+    private static void writeResult(PlatformResult result, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        if (result.manifest != null)
+            result.manifest.write(manifest);
+        out.writeBoolean(result.manifest != null);
+        out.writeInt(manifest.size());
+        manifest.writeTo(out);
+
+        out.writeInt(result.forgeMixins.size());
+        for (String mixin : result.forgeMixins) {
+            out.writeUTF(mixin);
+        }
+
+        out.writeInt(result.entries.size());
+        for (Map.Entry<String, MergeEntry> entry : result.entries.entrySet()) {
+            MergeEntry mergeEntry = entry.getValue();
+            out.writeUTF(entry.getKey());
+            out.writeLong(mergeEntry.time);
+            out.writeBoolean(mergeEntry.isRaw());
+            if (mergeEntry.isRaw()) {
+                out.writeInt(mergeEntry.method);
+                out.writeLong(mergeEntry.crc);
+                out.writeLong(mergeEntry.size);
+                out.writeInt(mergeEntry.raw.getLength());
+                mergeEntry.raw.writeTo(out);
+            } else {
+                out.writeInt(mergeEntry.data.getLength());
+                mergeEntry.data.writeTo(out);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Load a processed jar from the remap cache, or the in memory cache
+     * @param stream - The contents of the cache entry. It is closed afterwards
+     * @return - The processed jar
+     * @throws IOException - Thrown if an IO error occurs
+     */
+    private PlatformResult readResult(InputStream stream) throws IOException {
+        PlatformResult result = new PlatformResult();
+
+        try (DataInputStream in = new DataInputStream(stream)) {
+            boolean hasManifest = in.readBoolean();
+            byte[] manifest = new byte[in.readInt()];
+            in.readFully(manifest);
+            if (hasManifest)
+                result.manifest = new Manifest(new ByteArrayInputStream(manifest));
+
+            int mixins = in.readInt();
+            for (int i = 0; i < mixins; i++) {
+                result.forgeMixins.add(in.readUTF());
+            }
+
+            int entries = in.readInt();
+            for (int i = 0; i < entries; i++) {
+                String name = in.readUTF();
+                long time = in.readLong();
+                if (in.readBoolean()) {
+                    int method = in.readInt();
+                    long crc = in.readLong();
+                    long size = in.readLong();
+                    EntryStore.Payload raw = store.put(in, in.readInt());
+                    result.entries.put(name, MergeEntry.raw(raw, time, method, crc, size));
+                } else {
+                    EntryStore.Payload data = store.put(in, in.readInt());
+                    result.entries.put(name, new MergeEntry(data, time));
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Rename resources that would otherwise conflict between platforms. For example mixin configs, refmaps and
+     * embedded jars. Same rules as {@link JarMergeAction}
+     * @param input - The platform being processed
+     * @param index - The index of the resources of the platform
+     * @param textRelocations - The text replacements that need to be applied to the resources
+     * @param forgeMixins - Detected forge mixin configs will be added to this list
+     */
+    private void renameResources(PlatformInput input, ResourceIndex index, Map<String, String> textRelocations, List<String> forgeMixins) {
+        String name = input.getName();
+
+        for (ResourceIndex.Resource resource : index.getEmbeddedJars()) {
+            renameResource(index, resource, name + "-", textRelocations);
+        }
+
+        for (ResourceIndex.Resource resource : index.getPlatformServices(group)) {
+            renameResource(index, resource, name + ".", textRelocations);
+        }
+
+        for (ResourceIndex.Resource resource : index.getMixins(!input.isForge())) {
+            renameResource(index, resource, name + "-", textRelocations);
+            if (input.isForge())
+                forgeMixins.add(resource.getName());
+        }
+
+        if (!input.isForge()) {
+            for (ResourceIndex.Resource resource : index.getAccessWideners()) {
+                renameResource(index, resource, name + "-", textRelocations);
+            }
+        }
+
+        for (ResourceIndex.Resource resource : index.getRefmaps()) {
+            renameResource(index, resource, name + "-", textRelocations);
+        }
+    }
+
+    private static void renameResource(ResourceIndex index, ResourceIndex.Resource resource, String prefix, Map<String, String> textRelocations) {
+        String fileName = resource.getName();
+        if (index.rename(resource, prefix + fileName))
+            textRelocations.put(fileName, prefix + fileName);
+    }
+
+    /**
+     * Build the list of duplicate packages that need to be moved back to their original location
+     * @param classes - Class relocations that will be filled
+     * @param resources - Resource text replacements that will be filled
+     */
+    private void processDuplicatePackages(Map<String, String> classes, Map<String, String> resources) {
+        if (ignoredPackages == null)
+            return;
+
+        for (String duplicate : ignoredPackages) {
+            String duplicatePath = duplicate.replace(".", "/");
+
+            for (PlatformInput input : inputs) {
+                if (!FileTools.exists(input.getJar()))
+                    continue;
+
+                classes.put(input.getName() + "." + duplicate, duplicate);
+                resources.put(input.getName() + "/" + duplicatePath, duplicatePath);
+            }
+        }
+
+        resources.putAll(classes);
+    }
+
+    /**
+     * Combine the manifests from all the input jars into one
+     * @return - The merged manifest
+     */
+    private Manifest mergeManifests() {
+        Manifest mergedManifest = new Manifest();
+        manifests.forEach(manifest -> manifest.getMainAttributes().forEach((key, value) -> mergedManifest.getMainAttributes().putValue(key.toString(), value.toString())));
+
+        String mixinConfigs = mergedManifest.getMainAttributes().getValue("MixinConfigs");
+        if (mixinConfigs != null) {
+            List<String> remappedMixin = new ArrayList<>();
+            for (String mixin : mixinConfigs.split(",")) {
+                remappedMixin.add("forge-" + mixin);
+            }
+            mergedManifest.getMainAttributes().putValue("MixinConfigs", String.join(",", remappedMixin));
+        }
+
+        if (forgeMixins != null && !forgeMixins.isEmpty()) {
+            List<String> remappedMixin = new ArrayList<>();
+            for (String mixin : forgeMixins) {
+                remappedMixin.add("forge-" + mixin);
+            }
+            mergedManifest.getMainAttributes().putValue("MixinConfigs", String.join(",", remappedMixin));
+        }
+
+        if (mergedManifest.getMainAttributes().getValue("MixinConfigs") == null && !detectedForgeMixins.isEmpty()) {
+            logger.debug("Detected forge mixins: " + String.join(",", detectedForgeMixins) + "\n");
+            mergedManifest.getMainAttributes().putValue("MixinConfigs", String.join(",", detectedForgeMixins));
+        }
+
+        return mergedManifest;
+    }
+
+    /**
+     * Write the processed entries to the output jar
+     * @param outJar - The jar to write
+     * @param manifest - The merged manifest
+     * @param duplicateResources - Text replacements for resources referencing duplicate packages
+     * @throws IOException - Thrown if an IO error occurs
+     */
+    private void writeJar(File outJar, Manifest manifest, TextRelocator duplicateResources) throws IOException {
+        ByteArrayOutputStream manifestBytes = new ByteArrayOutputStream();
+        manifest.write(manifestBytes);
+        MergeEntry manifestEntry = new MergeEntry(store.put(duplicateResources.relocate(manifestBytes.toByteArray())), Constants.CONSTANT_ENTRY_TIME);
+
+        // Compress all entries on multiple threads. Each entry is compressed on its own, so the output is
+        // the same for any amount of threads
+        List<ParallelTasks.IOCallable<Void>> tasks = new ArrayList<>();
+        tasks.add(() -> compressEntry(MANIFEST, manifestEntry));
+        mergedEntries.forEach((name, entry) -> tasks.add(() -> compressEntry(name, entry)));
+        ParallelTasks.invokeAll(compressionThreads, tasks);
+
+        // Entries are written in a fixed order
+        Set<String> directories = new HashSet<>();
+        try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(outJar)) {
+            writeEntry(out, directories, MANIFEST, manifestEntry);
+
+            for (Map.Entry<String, MergeEntry> entry : mergedEntries.entrySet()) {
+                writeEntry(out, directories, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Compress an entry, using the compression level of its rule. Entries that were copied from the input are left as is
+     * @param name - The name of the entry
+     * @param entry - The entry to compress. The compressed data replaces the uncompressed data
+     * @return - Nothing, the entry is compressed in place
+     * @throws IOException - Thrown if the entry cannot be read from, or written to the entry store
+     */
+    private Void compressEntry(String name, MergeEntry entry) throws IOException {
+        if (entry.isRaw())
+            return null;
+
+        long start = System.nanoTime();
+        EntryStore.Payload uncompressed = entry.data;
+        byte[] data = uncompressed.bytes();
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        // Already compressed formats are stored as is, everything else is deflated with the level of its rule
+        int level = compression.getLevel(name);
+        if (level == Deflater.NO_COMPRESSION) {
+            entry.setCompressed(uncompressed, ZipEntry.STORED, crc.getValue(), data.length);
+        } else {
+            Deflater deflater = new Deflater(level, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(buffer);
+                    out.write(buffer, 0, length);
+                }
+                entry.setCompressed(store.put(out.toByteArray()), ZipEntry.DEFLATED, crc.getValue(), data.length);
+                uncompressed.release();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        if (compressionReport != null)
+            compressionReport.record(compression.getRule(name), level, data.length, entry.raw.getLength(), System.nanoTime() - start);
+
+        return null;
+    }
+
+    private void writeEntry(ZipArchiveOutputStream out, Set<String> directories, String name, MergeEntry entry) throws IOException {
+        int index = name.indexOf('/');
+        while (index != -1) {
+            String directory = name.substring(0, index + 1);
+            if (directories.add(directory)) {
+                ZipArchiveEntry dirEntry = new ZipArchiveEntry(directory);
+                dirEntry.setTime(entry.time);
+                out.putArchiveEntry(dirEntry);
+                out.closeArchiveEntry();
+            }
+            index = name.indexOf('/', index + 1);
+        }
+
+        ZipArchiveEntry zipEntry = new ZipArchiveEntry(name);
+        zipEntry.setTime(entry.time);
+        zipEntry.setMethod(entry.method);
+        zipEntry.setCrc(entry.crc);
+        zipEntry.setSize(entry.size);
+        zipEntry.setCompressedSize(entry.raw.getLength());
+
+        long start = System.nanoTime();
+        out.addRawArchiveEntry(zipEntry, entry.raw.openStream());
+
+        if (compressionReport != null && entry.copied)
+            compressionReport.record("copied", -1, entry.size, entry.raw.getLength(), System.nanoTime() - start);
+
+        // The entry is written, so its memory can be used by the next ones
+        entry.release();
+    }
+
+    private static boolean isSignatureFile(String name) {
+        if (name.equals("META-INF/INDEX.LIST"))
+            return true;
+
+        if (!name.startsWith("META-INF/") || name.indexOf('/', 9) != -1)
+            return false;
+
+        return name.endsWith(".SF") || name.endsWith(".DSA") || name.endsWith(".RSA") || name.endsWith(".EC");
+    }
+
+    /**
+     * The processed contents of a single input jar
+     */
+    private static class PlatformResult {
+        private final Map<String, MergeEntry> entries = new LinkedHashMap<>();
+        private final List<String> forgeMixins = new ArrayList<>();
+        private Manifest manifest;
+
+        // Size of the optimized classes in the input jar, and after they were relocated and optimized. Not known when the result is cached
+        private int optimizedClasses;
+        private long classBytesIn;
+        private long classBytesOut;
+    }
+
+    /**
+     * A processed entry waiting to be written to the output jar. Entries that were not changed keep their
+     * compressed data from the input jar instead. The contents are held by the {@link EntryStore}
+     */
+    private static class MergeEntry {
+        private EntryStore.Payload data;
+        private final long time;
+
+        // Compressed data, either copied as is from the input jar or compressed before writing
+        private EntryStore.Payload raw;
+        private int method;
+        private long crc;
+        private long size;
+        private boolean copied;
+
+        private MergeEntry(EntryStore.Payload data, long time) {
+            this.data = data;
+            this.time = time;
+        }
+
+        private static MergeEntry raw(EntryStore.Payload raw, long time, int method, long crc, long size) {
+            MergeEntry entry = new MergeEntry(null, time);
+            entry.setCompressed(raw, method, crc, size);
+            entry.copied = true;
+            return entry;
+        }
+
+        private void setCompressed(EntryStore.Payload raw, int method, long crc, long size) {
+            this.data = null;
+            this.raw = raw;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+        }
+
+        private boolean isRaw() {
+            return raw != null;
+        }
+
+        /**
+         * @return - A stream of the uncompressed contents of the entry
+         * @throws IOException - Thrown if an IO error occurs
+         */
+        private InputStream openContents() throws IOException {
+            if (!isRaw())
+                return data.openStream();
+
+            if (method == ZipEntry.STORED)
+                return raw.openStream();
+
+            // Raw entries only use stored or deflated data, see canCopyRaw
+            return new InflaterInputStream(raw.openStream(), new Inflater(true));
+        }
+
+        private void release() {
+            if (data != null)
+                data.release();
+            if (raw != null)
+                raw.release();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.plugin;
+
+import com.hypherionmc.modfusioner.utils.MemoryCache;
+import org.gradle.api.provider.Property;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * @author HypherionSA
+ * Shared build service that gives fuse tasks access to the in memory cache of the daemon.
+ * Build services only live for a single build, so the cached values are held by {@link MemoryCache#forProcess(long)},
+ * which lives as long as the daemon. This service applies the configured size, and logs how well the cache worked
+ * at the end of every build
+ */
+public abstract class FusionerCacheService implements BuildService<FusionerCacheService.Parameters>, AutoCloseable {
+
+    /**
+     * @return - The in memory cache of the daemon, resized to the configured size
+     */
+    public MemoryCache getCache() {
+        return MemoryCache.forProcess(getMaxSize());
+    }
+
+    /**
+     * @return - The maximum size of the cache in bytes. 0 disables the cache
+     */
+    public long getMaxSize() {
+        return getParameters().getMaxSize().getOrElse(MemoryCache.DEFAULT_MAX_SIZE);
+    }
+
+    @Override
+    public void close() {
+        // The cache is kept for the next build, only its statistics are reset
+        getCache().logStats();
+    }
+
+    /**
+     * Settings of the service
+     */
+    public interface Parameters extends BuildServiceParameters {
+
+        // The maximum size of the in memory cache, in bytes
+        Property<Long> getMaxSize();
+    }
+}
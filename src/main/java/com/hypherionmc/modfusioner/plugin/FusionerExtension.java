@@ -14,6 +14,7 @@ import lombok.Setter;
 import org.gradle.api.Action;
 
 import java.util.*;
+import java.util.zip.Deflater;
 
 @SuppressWarnings("unused")
 public class FusionerExtension {
@@ -35,10 +36,59 @@ public class FusionerExtension {
     @Getter
     List<String> duplicateRelocations;
 
+    // Find packages that are identical in all input jars, and de-duplicate them automatically
+    @Getter @Setter
+    boolean detectDuplicates = false;
+
     // The output directory for the merged jar
     @Getter @Setter
     String outputDirectory;
 
+    // Use the merge process that extracts all jars to disk before merging them. Both merges relocate with the same rules,
+    // but the streaming merge writes the jar itself. Stays the default until its jars are verified against this merge
+    @Getter @Setter
+    boolean legacyMerge = true;
+
+    // The amount of input jars that can be processed at the same time. 1 processes them one after another
+    @Getter @Setter
+    int parallelism = 1;
+
+    // Keep remapped jars between runs, so unchanged jars don't need to be remapped again
+    @Getter @Setter
+    boolean remapCache = true;
+
+    // The maximum size of the remap cache, in MB
+    @Getter @Setter
+    int remapCacheSize = 512;
+
+    // The maximum amount of memory used to hold merged entries, in MB, shared by all targets merged at the same time. Entries that don't fit are written to a temporary file
+    @Getter @Setter
+    int memoryBudget = 256;
+
+    // Entries larger than this are always written to a temporary file, instead of being held in memory, in KB
+    @Getter @Setter
+    int spillThreshold = 1024;
+
+    // The maximum size of the in memory cache that the gradle daemon keeps between builds, in MB. 0 disables it
+    @Getter @Setter
+    int memoryCache = 256;
+
+    // Run the merge in a separate worker process, instead of inside the gradle daemon
+    @Getter @Setter
+    boolean processIsolation = false;
+
+    // The maximum heap size of the worker process, when process isolation is used. For example: 2g
+    @Getter @Setter
+    String maxHeapSize;
+
+    // How the entries of the merged jar are compressed
+    @Getter @Setter
+    FusionerExtension.CompressionConfiguration compressionConfiguration = new FusionerExtension.CompressionConfiguration();
+
+    // Debug attributes that are removed from classes. Classes are left untouched unless this is configured
+    @Getter @Setter
+    FusionerExtension.OptimizationConfiguration optimizationConfiguration;
+
     // Forge Project Configuration
     @Getter @Setter
     FusionerExtension.ForgeConfiguration forgeConfiguration;
@@ -59,6 +109,10 @@ public class FusionerExtension {
     @Getter
     List<FusionerExtension.CustomConfiguration> customConfigurations = new ArrayList<>();
 
+    // Additional fused jars, each built from its own set of projects. They are all built by the same task run
+    @Getter
+    List<FusionerExtension.TargetConfiguration> targets = new ArrayList<>();
+
     /**
      * Main extension entry point
      */
@@ -105,6 +159,23 @@ public class FusionerExtension {
         duplicateRelocations.addAll(duplicates);
     }
 
+    /**
+     * Set up how the merged jar is compressed
+     */
+    public FusionerExtension.CompressionConfiguration compression(Action<FusionerExtension.CompressionConfiguration> action) {
+        action.execute(compressionConfiguration);
+        return compressionConfiguration;
+    }
+
+    /**
+     * Set up which debug attributes are removed from classes. Useful for release builds
+     */
+    public FusionerExtension.OptimizationConfiguration optimize(Action<FusionerExtension.OptimizationConfiguration> action) {
+        if (optimizationConfiguration == null) optimizationConfiguration = new FusionerExtension.OptimizationConfiguration();
+        action.execute(optimizationConfiguration);
+        return optimizationConfiguration;
+    }
+
     /**
      * Set up the forge project configurations
      */
@@ -155,10 +226,309 @@ public class FusionerExtension {
         return customConfiguration;
     }
 
+    /**
+     * Add an additional fused jar, built from its own set of projects. Settings that are not set on the target
+     * are taken from the main configuration
+     * @param name - The name of the target. For example: mc1201
+     */
+    public FusionerExtension.TargetConfiguration target(String name, Action<FusionerExtension.TargetConfiguration> action) {
+        if (name == null || name.isEmpty() || name.equals(TargetConfiguration.MAIN))
+            throw new IllegalStateException("Fusion targets need a name, other than \"" + TargetConfiguration.MAIN + "\"");
+
+        if (targets.stream().anyMatch(target -> target.getName().equals(name)))
+            throw new IllegalStateException("A fusion target named \"" + name + "\" already exists");
+
+        FusionerExtension.TargetConfiguration target = new FusionerExtension.TargetConfiguration(name);
+        action.execute(target);
+        targets.add(target);
+        return target;
+    }
+
+    /**
+     * Get all the jars that need to be fused. The main configuration is only included when it has projects configured,
+     * or when there are no additional targets
+     * @return - The main target, followed by the additional targets, with missing settings filled in
+     */
+    public List<FusionerExtension.TargetConfiguration> getAllTargets() {
+        List<FusionerExtension.TargetConfiguration> allTargets = new ArrayList<>();
+
+        FusionerExtension.TargetConfiguration main = getMainTarget();
+        if (!main.getPlatforms().isEmpty() || targets.isEmpty())
+            allTargets.add(main);
+
+        for (FusionerExtension.TargetConfiguration target : targets) {
+            FusionerExtension.TargetConfiguration resolved = new FusionerExtension.TargetConfiguration(target.name);
+            resolved.packageGroup = target.packageGroup != null ? target.packageGroup : packageGroup;
+            resolved.mergedJarName = target.mergedJarName != null ? target.mergedJarName : mergedJarName + "-" + target.name;
+            resolved.jarVersion = target.jarVersion != null ? target.jarVersion : jarVersion;
+            resolved.outputDirectory = target.outputDirectory != null ? target.outputDirectory : outputDirectory;
+            resolved.duplicateRelocations = target.duplicateRelocations != null ? target.duplicateRelocations : duplicateRelocations;
+            resolved.forgeConfiguration = target.forgeConfiguration;
+            resolved.neoforgeConfiguration = target.neoforgeConfiguration;
+            resolved.fabricConfiguration = target.fabricConfiguration;
+            resolved.quiltConfiguration = target.quiltConfiguration;
+            resolved.customConfigurations = target.customConfigurations;
+            allTargets.add(resolved);
+        }
+
+        return allTargets;
+    }
+
+    /**
+     * @return - The target built from the main configuration
+     */
+    public FusionerExtension.TargetConfiguration getMainTarget() {
+        FusionerExtension.TargetConfiguration main = new FusionerExtension.TargetConfiguration(TargetConfiguration.MAIN);
+        main.packageGroup = packageGroup;
+        main.mergedJarName = mergedJarName;
+        main.jarVersion = jarVersion;
+        main.outputDirectory = outputDirectory;
+        main.duplicateRelocations = duplicateRelocations;
+        main.forgeConfiguration = forgeConfiguration;
+        main.neoforgeConfiguration = neoforgeConfiguration;
+        main.fabricConfiguration = fabricConfiguration;
+        main.quiltConfiguration = quiltConfiguration;
+        main.customConfigurations = customConfigurations;
+        return main;
+    }
+
+    /**
+     * Settings shared by all the platform project configurations
+     */
+    public interface PlatformConfiguration {
+        String getProjectName();
+        String getInputFile();
+        String getInputTaskName();
+        Map<String, String> getRelocations();
+    }
+
+    /**
+     * Fusion target configuration. A single fused jar, and the projects it's built from
+     */
+    public static class TargetConfiguration {
+
+        // Name of the target built from the main configuration
+        public static final String MAIN = "main";
+
+        // The name of the target
+        @Getter
+        final String name;
+
+        // Group, or package names that will be used for the final jar. Defaults to the main packageGroup
+        @Getter @Setter
+        String packageGroup;
+
+        // The name of the final jar. Defaults to the main mergedJarName, followed by the name of the target
+        @Getter @Setter
+        String mergedJarName;
+
+        // The version of the final jar. Defaults to the main jarVersion
+        @Getter @Setter
+        String jarVersion;
+
+        // The output directory for the merged jar. Defaults to the main outputDirectory
+        @Getter @Setter
+        String outputDirectory;
+
+        // Duplicate packages that will be de-duplicated upon merge. Defaults to the main duplicate packages
+        @Getter
+        List<String> duplicateRelocations;
+
+        // Platform project configurations
+        @Getter @Setter
+        FusionerExtension.ForgeConfiguration forgeConfiguration;
+
+        @Getter @Setter
+        FusionerExtension.NeoForgeConfiguration neoforgeConfiguration;
+
+        @Getter @Setter
+        FusionerExtension.FabricConfiguration fabricConfiguration;
+
+        @Getter @Setter
+        FusionerExtension.QuiltConfiguration quiltConfiguration;
+
+        @Getter
+        List<FusionerExtension.CustomConfiguration> customConfigurations = new ArrayList<>();
+
+        TargetConfiguration(String name) {
+            this.name = name;
+        }
+
+        /**
+         * @return - True if this is the target built from the main configuration
+         */
+        public boolean isMain() {
+            return MAIN.equals(name);
+        }
+
+        /**
+         * @return - All the configured platform projects of this target
+         */
+        public List<FusionerExtension.PlatformConfiguration> getPlatforms() {
+            List<FusionerExtension.PlatformConfiguration> platforms = new ArrayList<>();
+            if (forgeConfiguration != null) platforms.add(forgeConfiguration);
+            if (neoforgeConfiguration != null) platforms.add(neoforgeConfiguration);
+            if (fabricConfiguration != null) platforms.add(fabricConfiguration);
+            if (quiltConfiguration != null) platforms.add(quiltConfiguration);
+            if (customConfigurations != null) platforms.addAll(customConfigurations);
+            return platforms;
+        }
+
+        /**
+         * Add duplicate packages to be de-duplicated, for this target only
+         * @param duplicates - The package names. For example: com.mymod.mylibrary
+         */
+        public void relocateDuplicate(String... duplicates) {
+            if (duplicateRelocations == null) duplicateRelocations = new ArrayList<>();
+            duplicateRelocations.addAll(Arrays.asList(duplicates));
+        }
+
+        /**
+         * Set up the forge project of this target
+         */
+        public FusionerExtension.ForgeConfiguration forge(Action<FusionerExtension.ForgeConfiguration> action) {
+            forgeConfiguration = new FusionerExtension.ForgeConfiguration();
+            action.execute(forgeConfiguration);
+            return forgeConfiguration;
+        }
+
+        /**
+         * Set up the neoforge project of this target
+         */
+        public FusionerExtension.NeoForgeConfiguration neoforge(Action<FusionerExtension.NeoForgeConfiguration> action) {
+            neoforgeConfiguration = new FusionerExtension.NeoForgeConfiguration();
+            action.execute(neoforgeConfiguration);
+            return neoforgeConfiguration;
+        }
+
+        /**
+         * Set up the fabric project of this target
+         */
+        public FusionerExtension.FabricConfiguration fabric(Action<FusionerExtension.FabricConfiguration> action) {
+            fabricConfiguration = new FusionerExtension.FabricConfiguration();
+            action.execute(fabricConfiguration);
+            return fabricConfiguration;
+        }
+
+        /**
+         * Set up the quilt project of this target
+         */
+        public FusionerExtension.QuiltConfiguration quilt(Action<FusionerExtension.QuiltConfiguration> action) {
+            quiltConfiguration = new FusionerExtension.QuiltConfiguration();
+            action.execute(quiltConfiguration);
+            return quiltConfiguration;
+        }
+
+        /**
+         * Set up a custom project of this target
+         */
+        public FusionerExtension.CustomConfiguration custom(Action<FusionerExtension.CustomConfiguration> action) {
+            FusionerExtension.CustomConfiguration customConfiguration = new FusionerExtension.CustomConfiguration();
+            action.execute(customConfiguration);
+
+            if (customConfiguration.getProjectName() == null || customConfiguration.getProjectName().isEmpty()) {
+                throw new IllegalStateException("Custom project configurations need to specify a \"projectName\"");
+            }
+            customConfigurations.add(customConfiguration);
+            return customConfiguration;
+        }
+    }
+
+    /**
+     * Compression Configuration Structure
+     */
+    public static class CompressionConfiguration {
+
+        // Compression level of entries without a more specific rule. 0 (stored) to 9 (smallest)
+        @Getter @Setter
+        int level = Deflater.BEST_COMPRESSION;
+
+        // Compression level of class files
+        @Getter @Setter
+        int classLevel = Deflater.BEST_COMPRESSION;
+
+        // Compression levels of specific file extensions. Already compressed formats are stored by default
+        @Getter
+        Map<String, Integer> extensionLevels = new LinkedHashMap<>();
+
+        // Use the fastest compression for everything. Useful for local development builds
+        @Getter @Setter
+        boolean fast = false;
+
+        // The amount of threads used to compress the merged jar. The output is the same for any amount of threads
+        @Getter @Setter
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        // Log how much time and space each compression rule used, instead of only logging it at info level
+        @Getter @Setter
+        boolean report = false;
+
+        public CompressionConfiguration() {
+            store("png", "jpg", "jpeg", "ogg", "jar", "zip", "gz", "nbt");
+        }
+
+        /**
+         * Store files with these extensions without compressing them
+         * @param extensions - The file extensions. For example: png
+         */
+        public void store(String... extensions) {
+            for (String extension : extensions) {
+                this.extensionLevels.put(extension, Deflater.NO_COMPRESSION);
+            }
+        }
+
+        /**
+         * Set the compression level of a file extension
+         * @param extension - The file extension. For example: json
+         * @param level - The compression level. 0 (stored) to 9 (smallest)
+         */
+        public void extension(String extension, int level) {
+            this.extensionLevels.put(extension, level);
+        }
+    }
+
+    /**
+     * Class Optimization Configuration Structure
+     */
+    public static class OptimizationConfiguration {
+
+        // Remove the LocalVariableTable and LocalVariableTypeTable attributes. Stack traces keep their line numbers
+        @Getter @Setter
+        boolean localVariables = true;
+
+        // Remove the SourceDebugExtension attribute, as written by the Kotlin compiler
+        @Getter @Setter
+        boolean sourceDebug = true;
+
+        // Package rules. True optimizes a package, false leaves it untouched. The most specific package wins
+        @Getter
+        Map<String, Boolean> packages = new LinkedHashMap<>();
+
+        /**
+         * Only optimize classes in these packages, and their sub packages
+         * @param packages - Package names. For example: com.mymod.core
+         */
+        public void include(String... packages) {
+            for (String name : packages) {
+                this.packages.put(name, true);
+            }
+        }
+
+        /**
+         * Leave classes in these packages, and their sub packages untouched
+         * @param packages - Package names. For example: com.mymod.api
+         */
+        public void exclude(String... packages) {
+            for (String name : packages) {
+                this.packages.put(name, false);
+            }
+        }
+    }
+
     /**
      * Forge Configuration Structure
      */
-    public static class ForgeConfiguration {
+    public static class ForgeConfiguration implements FusionerExtension.PlatformConfiguration {
 
         // The name of the gradle module that contains the forge code
         @Getter @Setter
@@ -201,7 +571,7 @@ public class FusionerExtension {
     /**
      * NeoForge Configuration Structure
      */
-    public static class NeoForgeConfiguration {
+    public static class NeoForgeConfiguration implements FusionerExtension.PlatformConfiguration {
 
         // The name of the gradle module that contains the fabric code
         @Getter @Setter
@@ -232,7 +602,7 @@ public class FusionerExtension {
     /**
      * Fabric project configuration
      */
-    public static class FabricConfiguration {
+    public static class FabricConfiguration implements FusionerExtension.PlatformConfiguration {
 
         // The name of the gradle module that contains the fabric code
         @Getter @Setter
@@ -263,7 +633,7 @@ public class FusionerExtension {
     /**
      * Quilt project configuration
      */
-    public static class QuiltConfiguration {
+    public static class QuiltConfiguration implements FusionerExtension.PlatformConfiguration {
 
         // The name of the gradle module that contains the quilt code
         @Getter @Setter
@@ -294,7 +664,7 @@ public class FusionerExtension {
     /**
      * Custom project configuration
      */
-    public static class CustomConfiguration {
+    public static class CustomConfiguration implements FusionerExtension.PlatformConfiguration {
 
         // The name of the gradle module that contains the custom code
         @Getter @Setter
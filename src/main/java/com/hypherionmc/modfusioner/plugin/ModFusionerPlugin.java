@@ -15,6 +15,7 @@ import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
 import org.gradle.api.logging.Logger;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.TaskProvider;
 import org.gradle.api.tasks.bundling.AbstractArchiveTask;
 
@@ -40,68 +41,28 @@ public class ModFusionerPlugin implements Plugin<Project> {
         // Register the extension
         modFusionerExtension = rootProject.getExtensions().create(Constants.EXTENSION_NAME, FusionerExtension.class);
 
+        // Register the in memory cache, shared by all fuse tasks of the build
+        Provider<FusionerCacheService> cacheService = project.getGradle().getSharedServices().registerIfAbsent("modfusionerCache", FusionerCacheService.class, spec ->
+                spec.getParameters().getMaxSize().set(project.provider(() -> modFusionerExtension.getMemoryCache() * 1024L * 1024L)));
+
         // Register the task
         TaskProvider<JarFuseTask> task = rootProject.getTasks().register(Constants.TASK_NAME, JarFuseTask.class);
         task.configure(fusioner -> {
             fusioner.setGroup(Constants.TASK_GROUP);
             fusioner.setDescription("Merge multiple jars into a single jar, for multi mod loader projects");
+            fusioner.getCacheService().set(cacheService);
+            fusioner.usesService(cacheService);
         });
 
-        // Check for task dependencies and register them on the main task
+        // Check for task dependencies of every fusion target and register them on the main task
         project.subprojects(cc -> cc.afterEvaluate(ccc -> {
-            if (modFusionerExtension.getForgeConfiguration() != null
-                    && modFusionerExtension.getForgeConfiguration().inputTaskName != null
-                    && !modFusionerExtension.getForgeConfiguration().inputTaskName.isEmpty()) {
-                if (ccc.getName().equals(modFusionerExtension.getForgeConfiguration().getProjectName()))
-                    resolveInputTasks(
-                            ccc,
-                            modFusionerExtension.getForgeConfiguration().getInputTaskName(),
-                            modFusionerExtension.getForgeConfiguration().getProjectName(),
-                            task
-                    );
-            }
-
-            if (modFusionerExtension.getNeoforgeConfiguration() != null
-                    && modFusionerExtension.getNeoforgeConfiguration().inputTaskName != null
-                    && !modFusionerExtension.getNeoforgeConfiguration().inputTaskName.isEmpty()) {
-                if (ccc.getName().equals(modFusionerExtension.getNeoforgeConfiguration().getProjectName()))
-                    resolveInputTasks(
-                            ccc,
-                            modFusionerExtension.getNeoforgeConfiguration().getInputTaskName(),
-                            modFusionerExtension.getNeoforgeConfiguration().getProjectName(),
-                            task
-                    );
-            }
-
-            if (modFusionerExtension.getFabricConfiguration() != null
-                    && modFusionerExtension.getFabricConfiguration().inputTaskName != null
-                    && !modFusionerExtension.getFabricConfiguration().inputTaskName.isEmpty()) {
-                if (ccc.getName().equals(modFusionerExtension.getFabricConfiguration().getProjectName()))
-                    resolveInputTasks(
-                            ccc,
-                            modFusionerExtension.getFabricConfiguration().getInputTaskName(),
-                            modFusionerExtension.getFabricConfiguration().getProjectName(),
-                            task
-                    );
-            }
-
-            if (modFusionerExtension.getQuiltConfiguration() != null
-                    && modFusionerExtension.getQuiltConfiguration().inputTaskName != null
-                    && !modFusionerExtension.getQuiltConfiguration().inputTaskName.isEmpty()) {
-                if (ccc.getName().equals(modFusionerExtension.getQuiltConfiguration().getProjectName()))
-                    resolveInputTasks(
-                            ccc,
-                            modFusionerExtension.getQuiltConfiguration().getInputTaskName(),
-                            modFusionerExtension.getQuiltConfiguration().getProjectName(),
-                            task
-                    );
-            }
-
-            if (modFusionerExtension.getCustomConfigurations() != null && !modFusionerExtension.getCustomConfigurations().isEmpty()) {
-                modFusionerExtension.getCustomConfigurations().forEach(c -> {
-                    if (ccc.getName().equals(c.getProjectName()) && c.getInputTaskName() != null && !c.getInputTaskName().isEmpty())
-                        resolveInputTasks(ccc, c.getInputTaskName(), c.getProjectName(), task);
-                });
+            for (FusionerExtension.TargetConfiguration target : modFusionerExtension.getAllTargets()) {
+                for (FusionerExtension.PlatformConfiguration platform : target.getPlatforms()) {
+                    if (platform.getInputTaskName() != null
+                            && !platform.getInputTaskName().isEmpty()
+                            && ccc.getName().equals(platform.getProjectName()))
+                        resolveInputTasks(ccc, platform.getInputTaskName(), platform.getProjectName(), task);
+                }
             }
         }));
     }
@@ -132,7 +93,12 @@ public class ModFusionerPlugin implements Plugin<Project> {
         if (!(task instanceof AbstractArchiveTask))
             return;
 
-        rootProject.task("prepareFuseTask" + project.getName()).dependsOn(":" + project.getName() + ":" + task.getName());
+        // Several targets can use the same project
+        Task prepareTask = rootProject.getTasks().findByName("prepareFuseTask" + project.getName());
+        if (prepareTask == null)
+            prepareTask = rootProject.task("prepareFuseTask" + project.getName());
+
+        prepareTask.dependsOn(":" + project.getName() + ":" + task.getName());
         mainTask.get().dependsOn("prepareFuseTask" + project.getName());
     }
 }
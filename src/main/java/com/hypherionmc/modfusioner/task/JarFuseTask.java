@@ -9,27 +9,41 @@
  */
 package com.hypherionmc.modfusioner.task;
 
-import com.hypherionmc.modfusioner.Constants;
-import com.hypherionmc.modfusioner.actions.JarMergeAction;
+import com.hypherionmc.modfusioner.actions.MergeWorkAction;
+import com.hypherionmc.modfusioner.plugin.FusionerCacheService;
 import com.hypherionmc.modfusioner.plugin.FusionerExtension;
 import com.hypherionmc.modfusioner.plugin.ModFusionerPlugin;
+import com.hypherionmc.modfusioner.utils.ClassOptimizer;
+import com.hypherionmc.modfusioner.utils.CompressionPolicy;
 import com.hypherionmc.modfusioner.utils.FileChecks;
 import com.hypherionmc.modfusioner.utils.FileTools;
+import com.hypherionmc.modfusioner.utils.PhaseReport;
 import org.apache.commons.io.FileUtils;
 import org.gradle.api.Project;
+import org.gradle.api.file.FileCollection;
 import org.gradle.api.internal.file.copy.CopyAction;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFiles;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.WorkResults;
 import org.gradle.jvm.tasks.Jar;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Callable;
 
 import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.modFusionerExtension;
 import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.rootProject;
@@ -38,194 +52,428 @@ import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.rootProject;
  * @author HypherionSA
  * The main task of the plugin
  */
-public class JarFuseTask extends Jar {
+@CacheableTask
+public abstract class JarFuseTask extends Jar {
 
-    // Fixed values
-    private final File mergedJar;
-    private static final AtomicBoolean hasRun = new AtomicBoolean(false);
+    // Jars of the additional fusion targets, keyed by target name
+    private final Map<String, File> targetJars = new LinkedHashMap<>();
 
     public JarFuseTask() {
-        // Set task default values from extension
+        // Set task default values from extension. The merged jar of the main target is the archive file of the task
         getArchiveBaseName().set(modFusionerExtension.getMergedJarName());
         getArchiveVersion().set(modFusionerExtension.getJarVersion());
         getDestinationDirectory().set(getProject().file(modFusionerExtension.getOutputDirectory()));
 
-        // We don't allow custom input files, when the user defines their own task
-        getInputs().files();
+        // Nothing can be fused without at least 2 projects. Skipping the task keeps missing jars out of the build cache
+        onlyIf(task -> hasEnoughProjects());
 
-        // Only allow the task to run once per cycle
-        getOutputs().upToDateWhen(spec -> hasRun.get());
+        // Additional targets use the same file name pattern as the main jar
+        for (FusionerExtension.TargetConfiguration target : modFusionerExtension.getAllTargets()) {
+            if (target.isMain())
+                continue;
 
-        // Set output file
-        mergedJar = new File(getDestinationDirectory().get().getAsFile(), getArchiveFileName().get());
-        getOutputs().file(mergedJar);
+            String version = target.getJarVersion() == null || target.getJarVersion().isEmpty() ? "" : "-" + target.getJarVersion();
+            File targetJar = new File(getProject().file(target.getOutputDirectory()), target.getMergedJarName() + version + ".jar");
+            targetJars.put(target.getName(), targetJar);
+        }
     }
 
     /**
-     * Main task logic
-     * @throws IOException - Thrown when an IO error occurs
+     * @return - The merged jars of the additional fusion targets, keyed by target name
      */
-    void fuseJars() throws IOException {
-        long time = System.currentTimeMillis();
+    @OutputFiles
+    public Map<String, File> getTargetJars() {
+        return targetJars;
+    }
 
-        ModFusionerPlugin.logger.lifecycle("Start Fusing Jars");
+    /**
+     * The platform jars that will be merged. Resolved when the task is executed, so jars built by other tasks are picked up
+     * @return - The input jars of all the configured platforms, of all targets
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public FileCollection getPlatformJars() {
+        return getProject().files((Callable<Set<File>>) () -> {
+            Set<File> jars = new LinkedHashSet<>();
+            for (FusionerExtension.TargetConfiguration target : modFusionerExtension.getAllTargets()) {
+                jars.addAll(resolveInputs(target).getJars());
+            }
+            return jars;
+        });
+    }
 
-        // Get settings from extension
-        FusionerExtension.ForgeConfiguration forgeConfiguration = modFusionerExtension.getForgeConfiguration();
-        FusionerExtension.NeoForgeConfiguration neoforgeConfiguration = modFusionerExtension.getNeoforgeConfiguration();
-        FusionerExtension.FabricConfiguration fabricConfiguration = modFusionerExtension.getFabricConfiguration();
-        FusionerExtension.QuiltConfiguration quiltConfiguration = modFusionerExtension.getQuiltConfiguration();
+    /**
+     * The contents of the platform jars are tracked by {@link #getPlatformJars()}. This tracks which platform each jar
+     * belongs to, so swapping the projects of two platforms isn't seen as up to date
+     * @return - The path of every input jar relative to the root project, keyed by target and platform. For example: main:forge
+     */
+    @Input
+    public Map<String, String> getPlatformInputs() {
+        Map<String, String> platforms = new LinkedHashMap<>();
+        for (FusionerExtension.TargetConfiguration target : modFusionerExtension.getAllTargets()) {
+            resolveInputs(target).getPlatformJars().forEach((platform, jar) ->
+                    platforms.put(target.getName() + ":" + platform, rootProject.getRootDir().toPath().relativize(jar.getAbsoluteFile().toPath()).toString().replace(File.separatorChar, '/')));
+        }
+        return platforms;
+    }
 
-        List<FusionerExtension.CustomConfiguration> customConfigurations = modFusionerExtension.getCustomConfigurations();
+    /**
+     * @return - The settings of the additional fusion targets, keyed by target name
+     */
+    @Input
+    public Map<String, String> getTargetSettings() {
+        Map<String, String> settings = new LinkedHashMap<>();
+        for (FusionerExtension.TargetConfiguration target : modFusionerExtension.getAllTargets()) {
+            if (!target.isMain())
+                settings.put(target.getName(), Arrays.asList(target.getPackageGroup(), target.getDuplicateRelocations(), getPlatformRelocations(target), getForgeMixins(target)).toString());
+        }
+        return settings;
+    }
 
-        // Try to resolve the projects specific in the extension config
-        Project forgeProject = null;
-        Project neoforgeProject = null;
-        Project fabricProject = null;
-        Project quiltProject = null;
-        Map<Project, FusionerExtension.CustomConfiguration> customProjects = new HashMap<>();
-        List<Boolean> validation = new ArrayList<>();
+    /**
+     * @return - The group, or package name used for the final jar
+     */
+    @Input
+    @Optional
+    public String getPackageGroup() {
+        return modFusionerExtension.getPackageGroup();
+    }
 
-        if (forgeConfiguration != null) {
-            try {
-                forgeProject = rootProject.getAllprojects().stream().filter(p -> !p.getName().equals(rootProject.getName())).filter(p -> p.getName().equalsIgnoreCase(forgeConfiguration.getProjectName())).findFirst().get();
-                validation.add(true);
-            } catch (NoSuchElementException ignored) { }
-        }
+    /**
+     * @return - Packages that will be de-duplicated
+     */
+    @Input
+    @Optional
+    public List<String> getDuplicateRelocations() {
+        return modFusionerExtension.getDuplicateRelocations();
+    }
 
-        if (neoforgeConfiguration != null) {
-            try {
-                neoforgeProject = rootProject.getAllprojects().stream().filter(p -> !p.getName().equals(rootProject.getName())).filter(p -> p.getName().equalsIgnoreCase(neoforgeConfiguration.getProjectName())).findFirst().get();
-                validation.add(true);
-            } catch (NoSuchElementException ignored) { }
-        }
+    /**
+     * @return - True if packages that are identical in all input jars are de-duplicated automatically
+     */
+    @Input
+    public boolean isDetectDuplicates() {
+        return modFusionerExtension.isDetectDuplicates();
+    }
 
-        if (fabricConfiguration != null) {
-            try {
-                fabricProject = rootProject.getAllprojects().stream().filter(p -> !p.getName().equals(rootProject.getName())).filter(p -> p.getName().equalsIgnoreCase(fabricConfiguration.getProjectName())).findFirst().get();
-                validation.add(true);
-            } catch (NoSuchElementException ignored) { }
-        }
+    /**
+     * @return - The relocations of each configured platform, keyed by platform
+     */
+    @Input
+    public Map<String, Map<String, String>> getPlatformRelocations() {
+        return getPlatformRelocations(modFusionerExtension.getMainTarget());
+    }
 
-        if (quiltConfiguration != null) {
-            try {
-                quiltProject = rootProject.getAllprojects().stream().filter(p -> !p.getName().equals(rootProject.getName())).filter(p -> p.getName().equalsIgnoreCase(quiltConfiguration.getProjectName())).findFirst().get();
-                validation.add(true);
-            } catch (NoSuchElementException ignored) { }
-        }
+    /**
+     * @param target - The fusion target
+     * @return - The relocations of each configured platform of the target, keyed by platform
+     */
+    private static Map<String, Map<String, String>> getPlatformRelocations(FusionerExtension.TargetConfiguration target) {
+        Map<String, Map<String, String>> relocations = new LinkedHashMap<>();
 
-        if (customConfigurations != null) {
-            for (FusionerExtension.CustomConfiguration customSettings : customConfigurations) {
-                try {
-                    customProjects.put(rootProject.getAllprojects().stream().filter(p -> !p.getName().equals(rootProject.getName())).filter(p -> p.getName().equals(customSettings.getProjectName())).findFirst().get(), customSettings);
-                    validation.add(true);
-                } catch (NoSuchElementException ignored) { }
+        if (target.getForgeConfiguration() != null)
+            relocations.put("forge", new LinkedHashMap<>(target.getForgeConfiguration().getRelocations()));
+
+        if (target.getNeoforgeConfiguration() != null)
+            relocations.put("neoforge", new LinkedHashMap<>(target.getNeoforgeConfiguration().getRelocations()));
+
+        if (target.getFabricConfiguration() != null)
+            relocations.put("fabric", new LinkedHashMap<>(target.getFabricConfiguration().getRelocations()));
+
+        if (target.getQuiltConfiguration() != null)
+            relocations.put("quilt", new LinkedHashMap<>(target.getQuiltConfiguration().getRelocations()));
+
+        if (target.getCustomConfigurations() != null) {
+            for (FusionerExtension.CustomConfiguration customSettings : target.getCustomConfigurations()) {
+                relocations.put("custom:" + customSettings.getProjectName(), new LinkedHashMap<>(customSettings.getRelocations()));
             }
         }
 
-        // Check that at least 2 projects are defined
-        if (validation.size() < 2) {
-            if (validation.size() == 1) ModFusionerPlugin.logger.error("Only one project was found. Skipping fusejars task.");
-            if (validation.size() == 0) ModFusionerPlugin.logger.error("No projects were found. Skipping fusejars task.");
-            return;
+        return relocations;
+    }
+
+    /**
+     * @return - The mixin configs configured for forge
+     */
+    @Input
+    public List<String> getForgeMixins() {
+        return getForgeMixins(modFusionerExtension.getMainTarget());
+    }
+
+    private static List<String> getForgeMixins(FusionerExtension.TargetConfiguration target) {
+        FusionerExtension.ForgeConfiguration forgeConfiguration = target.getForgeConfiguration();
+        return forgeConfiguration == null ? new ArrayList<>() : new ArrayList<>(forgeConfiguration.getMixins());
+    }
+
+    /**
+     * @return - True if the old, directory based merge process is used
+     */
+    @Input
+    public boolean isLegacyMerge() {
+        return modFusionerExtension.isLegacyMerge();
+    }
+
+    /**
+     * @return - How the entries of the merged jar are compressed
+     */
+    @Input
+    public CompressionPolicy getCompressionPolicy() {
+        FusionerExtension.CompressionConfiguration compression = modFusionerExtension.getCompressionConfiguration();
+        if (compression == null)
+            return CompressionPolicy.DEFAULT;
+
+        return CompressionPolicy.of(compression.getLevel(), compression.getClassLevel(), compression.getExtensionLevels(), compression.isFast());
+    }
+
+    /**
+     * @return - Which debug attributes are removed from classes
+     */
+    @Input
+    public ClassOptimizer getClassOptimizer() {
+        FusionerExtension.OptimizationConfiguration optimization = modFusionerExtension.getOptimizationConfiguration();
+        if (optimization == null)
+            return ClassOptimizer.DISABLED;
+
+        return ClassOptimizer.of(optimization.isLocalVariables(), optimization.isSourceDebug(), optimization.getPackages());
+    }
+
+    /**
+     * Main task logic. Resolves the inputs of every fusion target, and submits their merges to the worker executor.
+     * Targets don't depend on each other, so their merges run at the same time
+     * @throws IOException - Thrown when an IO error occurs
+     */
+    void fuseJars() throws IOException {
+        ModFusionerPlugin.logger.lifecycle("Start Fusing Jars");
+
+        // Run the merge in the daemon, or in a separate process when isolation is enabled
+        WorkQueue workQueue;
+        if (modFusionerExtension.isProcessIsolation()) {
+            workQueue = getWorkerExecutor().processIsolation(spec -> spec.forkOptions(options -> {
+                if (modFusionerExtension.getMaxHeapSize() != null && !modFusionerExtension.getMaxHeapSize().isEmpty())
+                    options.setMaxHeapSize(modFusionerExtension.getMaxHeapSize());
+            }));
+        } else {
+            workQueue = getWorkerExecutor().noIsolation();
         }
-        validation.clear();
 
-        // Try to automatically determine the input jar from the projects
-        File forgeJar = null;
-        File neoforgeJar = null;
-        File fabricJar = null;
-        File quiltJar = null;
-        Map<FusionerExtension.CustomConfiguration, File> customJars = new HashMap<>();
+        for (FusionerExtension.TargetConfiguration target : modFusionerExtension.getAllTargets()) {
+            fuseTarget(workQueue, target, target.isMain() ? getArchiveFile().get().getAsFile() : targetJars.get(target.getName()));
+        }
+    }
 
-        if (forgeProject != null && forgeConfiguration != null) {
-            forgeJar = getInputFile(forgeConfiguration.getInputFile(), forgeConfiguration.getInputTaskName(), forgeProject);
+    /**
+     * Resolve the inputs of a single fusion target, and submit its merge
+     * @param workQueue - The queue the merge is submitted to
+     * @param target - The fusion target
+     * @param outputJar - The fused jar of the target
+     * @throws IOException - Thrown when an IO error occurs
+     */
+    private void fuseTarget(WorkQueue workQueue, FusionerExtension.TargetConfiguration target, File outputJar) throws IOException {
+        String targetName = target.isMain() ? "" : " for target " + target.getName();
+
+        // Get settings from the target
+        FusionerExtension.ForgeConfiguration forgeConfiguration = target.getForgeConfiguration();
+        FusionerExtension.NeoForgeConfiguration neoforgeConfiguration = target.getNeoforgeConfiguration();
+        FusionerExtension.FabricConfiguration fabricConfiguration = target.getFabricConfiguration();
+        FusionerExtension.QuiltConfiguration quiltConfiguration = target.getQuiltConfiguration();
+
+        // Resolving the inputs is the first phase of the report, the rest is recorded by the merge
+        PhaseReport report = new PhaseReport();
+        ResolvedInputs inputs;
+        try (PhaseReport.Phase phase = report.start("resolve-inputs")) {
+            inputs = resolveInputs(target);
+            phase.addFiles(inputs.getJars().size());
         }
 
-        if (neoforgeProject != null && neoforgeConfiguration != null) {
-            neoforgeJar = getInputFile(neoforgeConfiguration.getInputFile(), neoforgeConfiguration.getInputTaskName(), neoforgeProject);
+        // Check if the required input files exists
+        if (forgeConfiguration != null && !FileTools.exists(inputs.forgeJar)) {
+            ModFusionerPlugin.logger.warn("Forge jar does not exist" + targetName + "! You can ignore this warning if you are not using forge");
         }
 
-        if (fabricProject != null && fabricConfiguration != null) {
-            fabricJar = getInputFile(fabricConfiguration.getInputFile(), fabricConfiguration.getInputTaskName(), fabricProject);
+        if (neoforgeConfiguration != null && !FileTools.exists(inputs.neoforgeJar)) {
+            ModFusionerPlugin.logger.warn("NeoForge jar does not exist" + targetName + "! You can ignore this warning if you are not using neoforge");
         }
 
-        if (quiltProject != null && quiltConfiguration != null) {
-            quiltJar = getInputFile(quiltConfiguration.getInputFile(), quiltConfiguration.getInputTaskName(), quiltProject);
+        if (fabricConfiguration != null && !FileTools.exists(inputs.fabricJar)) {
+            ModFusionerPlugin.logger.warn("Fabric jar does not exist" + targetName + "! You can ignore this warning if you are not using fabric");
         }
 
-        for (Map.Entry<Project, FusionerExtension.CustomConfiguration> entry : customProjects.entrySet()) {
-            File f = getInputFile(entry.getValue().getInputFile(), entry.getValue().getInputTaskName(), entry.getKey());
-            if (f != null)
-                customJars.put(entry.getValue(), f);
+        if (quiltConfiguration != null && !FileTools.exists(inputs.quiltJar)) {
+            ModFusionerPlugin.logger.warn("Quilt jar does not exist" + targetName + "! You can ignore this warning if you are not using quilt");
         }
 
+        inputs.customJars.forEach((key, value) -> {
+            if (!FileTools.exists(value)) {
+                ModFusionerPlugin.logger.warn(key.getProjectName() + " jar does not exist" + targetName + "! You can ignore this if you are not using custom configurations");
+            }
+        });
+
         // Set up the final output jar
-        if (mergedJar.exists()) FileUtils.forceDelete(mergedJar);
-        if (!mergedJar.getParentFile().exists()) mergedJar.getParentFile().mkdirs();
-
-        // Set up the jar merge action
-        JarMergeAction mergeAction = JarMergeAction.of(
-                customJars,
-                modFusionerExtension.getDuplicateRelocations(),
-                modFusionerExtension.getPackageGroup(),
-                new File(rootProject.getRootDir(), ".gradle" + File.separator + "fusioner"),
-                getArchiveFileName().get()
-        );
-
-        // Forge
-        mergeAction.setForgeInput(forgeJar);
-        mergeAction.setForgeRelocations(forgeConfiguration == null ? new HashMap<>() : forgeConfiguration.getRelocations());
-        mergeAction.setForgeMixins(forgeConfiguration == null ? new ArrayList<>() : forgeConfiguration.getMixins());
-
-        // NeoForge
-        mergeAction.setNeoforgeInput(neoforgeJar);
-        mergeAction.setNeoforgeRelocations(neoforgeConfiguration == null ? new HashMap<>() : neoforgeConfiguration.getRelocations());
-
-        // Fabric
-        mergeAction.setFabricInput(fabricJar);
-        mergeAction.setFabricRelocations(fabricConfiguration == null ? new HashMap<>() : fabricConfiguration.getRelocations());
-
-        // Quilt
-        mergeAction.setQuiltInput(quiltJar);
-        mergeAction.setQuiltRelocations(quiltConfiguration == null ? new HashMap<>() : quiltConfiguration.getRelocations());
-
-        // Merge them jars
-        Path tempMergedJarPath = mergeAction.mergeJars(false).toPath();
-
-        // Move the merged jar to the specified output directory
-        Files.move(tempMergedJarPath, mergedJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        try {
-            Files.setPosixFilePermissions(mergedJar.toPath(), Constants.filePerms);
-        } catch (UnsupportedOperationException | IOException | SecurityException ignored) { }
-
-        // Cleanup
-        mergeAction.clean();
-
-        ModFusionerPlugin.logger.lifecycle("Fused jar created in " + (System.currentTimeMillis() - time) / 1000.0 + " seconds.");
-        hasRun.set(true);
+        if (outputJar.exists()) FileUtils.forceDelete(outputJar);
+        if (!outputJar.getParentFile().exists()) outputJar.getParentFile().mkdirs();
+
+        // Every target needs its own working directory, because they run at the same time. The remap cache next to them is shared
+        String suffix = target.isMain() ? "" : "-" + target.getName();
+
+        workQueue.submit(MergeWorkAction.class, parameters -> {
+            Map<String, File> platformJars = new HashMap<>();
+            if (inputs.forgeJar != null) platformJars.put("forge", inputs.forgeJar);
+            if (inputs.neoforgeJar != null) platformJars.put("neoforge", inputs.neoforgeJar);
+            if (inputs.fabricJar != null) platformJars.put("fabric", inputs.fabricJar);
+            if (inputs.quiltJar != null) platformJars.put("quilt", inputs.quiltJar);
+            parameters.getPlatformJars().set(platformJars);
+            parameters.getRelocations().set(getPlatformRelocations(target));
+
+            inputs.customJars.forEach((key, value) -> {
+                parameters.getCustomJars().put(key.getProjectName(), value);
+                parameters.getCustomRelocations().put(key.getProjectName(), new LinkedHashMap<>(key.getRelocations()));
+            });
+
+            parameters.getForgeMixins().set(getForgeMixins(target));
+            parameters.getDuplicateRelocations().set(target.getDuplicateRelocations());
+            parameters.getDetectDuplicates().set(modFusionerExtension.isDetectDuplicates());
+            parameters.getPackageGroup().set(target.getPackageGroup());
+            parameters.getTempDir().set(new File(rootProject.getRootDir(), ".gradle" + File.separator + "fusioner" + suffix));
+            parameters.getOutputJar().set(outputJar);
+            parameters.getLegacyMerge().set(modFusionerExtension.isLegacyMerge());
+            parameters.getParallelism().set(modFusionerExtension.getParallelism());
+            parameters.getCompression().set(getCompressionPolicy());
+            parameters.getCompressionReport().set(modFusionerExtension.getCompressionConfiguration() != null && modFusionerExtension.getCompressionConfiguration().isReport());
+            parameters.getCompressionThreads().set(modFusionerExtension.getCompressionConfiguration() == null ? 1 : modFusionerExtension.getCompressionConfiguration().getThreads());
+            parameters.getRemapCacheSize().set(modFusionerExtension.isRemapCache() ? modFusionerExtension.getRemapCacheSize() * 1024L * 1024L : 0L);
+            parameters.getMemoryBudget().set(modFusionerExtension.getMemoryBudget() * 1024L * 1024L);
+            parameters.getSpillThreshold().set(modFusionerExtension.getSpillThreshold() * 1024);
+            parameters.getMemoryCacheSize().set(getCacheService().get().getMaxSize());
+            if (!modFusionerExtension.isProcessIsolation())
+                parameters.getCacheService().set(getCacheService());
+            parameters.getClassOptimizer().set(getClassOptimizer());
+            parameters.getReport().set(report);
+            parameters.getReportFile().set(new File(getProject().getBuildDir(), "reports" + File.separator + "modfusioner" + File.separator + getName() + suffix + ".json"));
+        });
     }
 
     /**
-     * Run the main task logic and copy the files to the correct locations
+     * @return - The in memory cache the daemon keeps between builds
+     */
+    @Internal
+    public abstract Property<FusionerCacheService> getCacheService();
+
+    /**
+     * @return - The worker executor used to run the merge
+     */
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    /**
+     * Run the main task logic. Gradle only runs this when the inputs changed, and the result isn't in the build cache
      * @return - Just returns true to say the task executed
      */
     @Override
     protected @NotNull CopyAction createCopyAction() {
         return copyActionProcessingStream -> {
-            copyActionProcessingStream.process(fileCopyDetailsInternal -> {
-                if (!hasRun.get())
-                    try {
-                        fuseJars();
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-            });
+            try {
+                fuseJars();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
 
             return WorkResults.didWork(true);
         };
     }
 
+    /**
+     * Check that every fusion target has at least 2 projects to merge. The task declares the jars of all targets
+     * as outputs, so it's skipped as a whole when a single target can't be fused
+     * @return - True if all targets can be fused
+     */
+    private boolean hasEnoughProjects() {
+        boolean enough = true;
+        for (FusionerExtension.TargetConfiguration target : modFusionerExtension.getAllTargets()) {
+            int projects = resolveInputs(target).projects;
+            if (projects >= 2)
+                continue;
+
+            String targetName = target.isMain() ? "" : " for target " + target.getName();
+            if (projects == 1) ModFusionerPlugin.logger.error("Only one project was found" + targetName + ". Skipping fusejars task.");
+            if (projects == 0) ModFusionerPlugin.logger.error("No projects were found" + targetName + ". Skipping fusejars task.");
+            enough = false;
+        }
+        return enough;
+    }
+
+    /**
+     * Resolve the projects specified in the config of a fusion target, and their input jars
+     * @param target - The fusion target
+     * @return - The resolved projects and input jars
+     */
+    private ResolvedInputs resolveInputs(FusionerExtension.TargetConfiguration target) {
+        FusionerExtension.ForgeConfiguration forgeConfiguration = target.getForgeConfiguration();
+        FusionerExtension.NeoForgeConfiguration neoforgeConfiguration = target.getNeoforgeConfiguration();
+        FusionerExtension.FabricConfiguration fabricConfiguration = target.getFabricConfiguration();
+        FusionerExtension.QuiltConfiguration quiltConfiguration = target.getQuiltConfiguration();
+
+        List<FusionerExtension.CustomConfiguration> customConfigurations = target.getCustomConfigurations();
+        ResolvedInputs inputs = new ResolvedInputs();
+
+        // Try to resolve the projects, and automatically determine the input jar from them
+        if (forgeConfiguration != null) {
+            Project forgeProject = findProject(forgeConfiguration.getProjectName());
+            if (forgeProject != null) {
+                inputs.projects++;
+                inputs.forgeJar = getInputFile(forgeConfiguration.getInputFile(), forgeConfiguration.getInputTaskName(), forgeProject);
+            }
+        }
+
+        if (neoforgeConfiguration != null) {
+            Project neoforgeProject = findProject(neoforgeConfiguration.getProjectName());
+            if (neoforgeProject != null) {
+                inputs.projects++;
+                inputs.neoforgeJar = getInputFile(neoforgeConfiguration.getInputFile(), neoforgeConfiguration.getInputTaskName(), neoforgeProject);
+            }
+        }
+
+        if (fabricConfiguration != null) {
+            Project fabricProject = findProject(fabricConfiguration.getProjectName());
+            if (fabricProject != null) {
+                inputs.projects++;
+                inputs.fabricJar = getInputFile(fabricConfiguration.getInputFile(), fabricConfiguration.getInputTaskName(), fabricProject);
+            }
+        }
+
+        if (quiltConfiguration != null) {
+            Project quiltProject = findProject(quiltConfiguration.getProjectName());
+            if (quiltProject != null) {
+                inputs.projects++;
+                inputs.quiltJar = getInputFile(quiltConfiguration.getInputFile(), quiltConfiguration.getInputTaskName(), quiltProject);
+            }
+        }
+
+        if (customConfigurations != null) {
+            for (FusionerExtension.CustomConfiguration customSettings : customConfigurations) {
+                Project customProject = rootProject.getAllprojects().stream().filter(p -> !p.getName().equals(rootProject.getName())).filter(p -> p.getName().equals(customSettings.getProjectName())).findFirst().orElse(null);
+                if (customProject == null)
+                    continue;
+
+                inputs.projects++;
+                File f = getInputFile(customSettings.getInputFile(), customSettings.getInputTaskName(), customProject);
+                if (f != null)
+                    inputs.customJars.put(customSettings, f);
+            }
+        }
+
+        return inputs;
+    }
+
+    /**
+     * Find a subproject by name
+     * @param projectName - The name of the project, ignoring case
+     * @return - The project or null
+     */
+    @Nullable
+    private Project findProject(String projectName) {
+        return rootProject.getAllprojects().stream().filter(p -> !p.getName().equals(rootProject.getName())).filter(p -> p.getName().equalsIgnoreCase(projectName)).findFirst().orElse(null);
+    }
+
     /**
      * Try to determine the input jar of a project
      * @param jarLocation - The user defined jar location
@@ -239,8 +487,12 @@ public class JarFuseTask extends Jar {
         } else if (inputTaskName != null && !inputTaskName.isEmpty()) {
           return FileTools.resolveFile(inProject, inputTaskName);
         } else {
+            File[] files = new File(inProject.getBuildDir(), "libs").listFiles();
+            if (files == null)
+                return null;
+
             int i = 0;
-            for (File file : new File(inProject.getBuildDir(), "libs").listFiles()) {
+            for (File file : files) {
                 if (file.isDirectory()) continue;
                 if (FileChecks.isZipFile(file)) {
                     if (file.getName().length() < i || i == 0) {
@@ -253,4 +505,30 @@ public class JarFuseTask extends Jar {
 
         return null;
     }
+
+    /**
+     * The projects and input jars resolved from the extension config
+     */
+    private static class ResolvedInputs {
+        private int projects;
+        private File forgeJar;
+        private File neoforgeJar;
+        private File fabricJar;
+        private File quiltJar;
+        private final Map<FusionerExtension.CustomConfiguration, File> customJars = new LinkedHashMap<>();
+
+        private List<File> getJars() {
+            return new ArrayList<>(getPlatformJars().values());
+        }
+
+        private Map<String, File> getPlatformJars() {
+            Map<String, File> jars = new LinkedHashMap<>();
+            if (forgeJar != null) jars.put("forge", forgeJar);
+            if (neoforgeJar != null) jars.put("neoforge", neoforgeJar);
+            if (fabricJar != null) jars.put("fabric", fabricJar);
+            if (quiltJar != null) jars.put("quilt", quiltJar);
+            customJars.forEach((configuration, jar) -> jars.put("custom:" + configuration.getProjectName(), jar));
+            return jars;
+        }
+    }
 }
@@ -0,0 +1,159 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.objectweb.asm.*;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * @author HypherionSA
+ * Optional optimization of class files, applied in the same ASM pass as the relocation. Strips debug attributes
+ * that are not needed at runtime, and rebuilds the constant pool, so entries that are no longer used are dropped.
+ * Which classes are optimized can be limited with per-package rules
+ */
+public final class ClassOptimizer implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Leaves all classes untouched. Used when no optimization is configured
+    public static final ClassOptimizer DISABLED = new ClassOptimizer(false, false, new TreeMap<>());
+
+    // Strip the LocalVariableTable and LocalVariableTypeTable attributes of methods
+    private final boolean localVariables;
+
+    // Strip the SourceDebugExtension attribute, as written by Kotlin and JSP compilers
+    private final boolean sourceDebug;
+
+    // Package rules in path form. True optimizes the package, false keeps it as is. The longest matching package wins
+    private final TreeMap<String, Boolean> packages;
+
+    // Classes without a matching rule are only optimized when no package was explicitly selected
+    private final boolean optimizeByDefault;
+
+    private ClassOptimizer(boolean localVariables, boolean sourceDebug, Map<String, Boolean> packages) {
+        this.localVariables = localVariables;
+        this.sourceDebug = sourceDebug;
+        this.packages = new TreeMap<>();
+        packages.forEach((name, optimize) -> this.packages.put(name.replace('.', '/'), optimize));
+        this.optimizeByDefault = !this.packages.containsValue(true);
+    }
+
+    /**
+     * Create a new optimizer
+     * @param localVariables - Strip local variable tables
+     * @param sourceDebug - Strip the SourceDebugExtension attribute
+     * @param packages - Package rules. True optimizes a package, false keeps it as is. For example: com.mymod.api -> false
+     * @return - The optimizer
+     */
+    @NotNull
+    public static ClassOptimizer of(boolean localVariables, boolean sourceDebug, @NotNull Map<String, Boolean> packages) {
+        return new ClassOptimizer(localVariables, sourceDebug, packages);
+    }
+
+    /**
+     * @return - True if this optimizer changes anything
+     */
+    public boolean isEnabled() {
+        return localVariables || sourceDebug;
+    }
+
+    /**
+     * Check if a class should be optimized
+     * @param className - The internal name of the class, as it is in the input jar. For example: com/mymod/Test
+     * @return - True if the class should be optimized
+     */
+    public boolean appliesTo(@NotNull String className) {
+        if (!isEnabled())
+            return false;
+
+        // Walk up the packages of the class, so the most specific rule is found first
+        String name = className;
+        int separator;
+        while ((separator = name.lastIndexOf('/')) > 0) {
+            name = name.substring(0, separator);
+            Boolean rule = packages.get(name);
+            if (rule != null)
+                return rule;
+        }
+        return optimizeByDefault;
+    }
+
+    /**
+     * Wrap a class visitor, so the configured attributes are removed before they reach it
+     * @param visitor - The visitor that receives the optimized class
+     * @return - The wrapped visitor
+     */
+    @NotNull
+    public ClassVisitor wrap(@NotNull ClassVisitor visitor) {
+        return new ClassVisitor(Opcodes.ASM9, visitor) {
+            @Override
+            public void visitSource(String source, String debug) {
+                super.visitSource(source, sourceDebug ? null : debug);
+            }
+
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+                MethodVisitor method = super.visitMethod(access, name, descriptor, signature, exceptions);
+                if (!localVariables || method == null)
+                    return method;
+
+                return new MethodVisitor(Opcodes.ASM9, method) {
+                    @Override
+                    public void visitLocalVariable(String name, String descriptor, String signature, Label start, Label end, int index) {
+                        // Dropped, together with the generic signatures of the LocalVariableTypeTable
+                    }
+
+                    @Override
+                    public AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath, Label[] start, Label[] end, int[] index, String descriptor, boolean visible) {
+                        // These refer to the ranges of the removed local variables
+                        return null;
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Optimize a class file on its own. Used by the legacy merge, which optimizes the classes of an input jar before the jar manager relocates them
+     * @param bytes - The input class file
+     * @return - The optimized class file
+     */
+    public byte[] optimize(byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+
+        // The writer doesn't copy the constant pool of the reader, so it only contains the entries that are used
+        ClassWriter writer = new ClassWriter(0);
+        reader.accept(wrap(writer), 0);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ClassOptimizer)) return false;
+        ClassOptimizer that = (ClassOptimizer) o;
+        return localVariables == that.localVariables && sourceDebug == that.sourceDebug && packages.equals(that.packages);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(localVariables, sourceDebug, packages);
+    }
+
+    @Override
+    public String toString() {
+        return "ClassOptimizer{localVariables=" + localVariables + ", sourceDebug=" + sourceDebug + ", packages=" + packages + "}";
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.apache.commons.io.FilenameUtils;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+/**
+ * @author HypherionSA
+ * Decides how each entry of the merged jar is compressed. Formats that are already compressed are stored,
+ * class files and everything else use their own compression level
+ */
+public final class CompressionPolicy implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Compress everything as small as possible. Used when no policy is configured
+    public static final CompressionPolicy DEFAULT = new CompressionPolicy(Deflater.BEST_COMPRESSION, Deflater.BEST_COMPRESSION, new TreeMap<>(), false);
+
+    private final int level;
+    private final int classLevel;
+    private final TreeMap<String, Integer> extensionLevels;
+
+    private CompressionPolicy(int level, int classLevel, Map<String, Integer> extensionLevels, boolean fast) {
+        this.extensionLevels = new TreeMap<>();
+        extensionLevels.forEach((extension, extensionLevel) -> this.extensionLevels.put(extension.toLowerCase(Locale.ROOT), fast ? Math.min(extensionLevel, Deflater.BEST_SPEED) : extensionLevel));
+        this.level = fast ? Math.min(level, Deflater.BEST_SPEED) : level;
+        this.classLevel = fast ? Math.min(classLevel, Deflater.BEST_SPEED) : classLevel;
+    }
+
+    /**
+     * Create a new compression policy
+     * @param level - The compression level of entries without a more specific rule
+     * @param classLevel - The compression level of class files
+     * @param extensionLevels - Compression levels for specific file extensions. 0 stores the entry without compression
+     * @param fast - Use the fastest compression level for everything that is compressed
+     * @return - The compression policy
+     */
+    @NotNull
+    public static CompressionPolicy of(int level, int classLevel, @NotNull Map<String, Integer> extensionLevels, boolean fast) {
+        return new CompressionPolicy(level, classLevel, extensionLevels, fast);
+    }
+
+    /**
+     * Get the name of the rule that applies to an entry
+     * @param name - The name of the entry
+     * @return - The name of the rule, used for reporting
+     */
+    @NotNull
+    public String getRule(@NotNull String name) {
+        String extension = FilenameUtils.getExtension(name).toLowerCase(Locale.ROOT);
+        if (extensionLevels.containsKey(extension))
+            return "*." + extension;
+
+        return extension.equals("class") ? "classes" : "other";
+    }
+
+    /**
+     * Get the compression level of an entry
+     * @param name - The name of the entry
+     * @return - The compression level. 0 means the entry is stored without compression
+     */
+    public int getLevel(@NotNull String name) {
+        String extension = FilenameUtils.getExtension(name).toLowerCase(Locale.ROOT);
+        Integer extensionLevel = extensionLevels.get(extension);
+        if (extensionLevel != null)
+            return extensionLevel;
+
+        return extension.equals("class") ? classLevel : level;
+    }
+
+    /**
+     * @return - The compression level of entries without a more specific rule
+     */
+    public int getDefaultLevel() {
+        return level;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof CompressionPolicy)) return false;
+        CompressionPolicy that = (CompressionPolicy) o;
+        return level == that.level && classLevel == that.classLevel && extensionLevels.equals(that.extensionLevels);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(level, classLevel, extensionLevels);
+    }
+
+    @Override
+    public String toString() {
+        return "CompressionPolicy{level=" + level + ", classLevel=" + classLevel + ", extensionLevels=" + extensionLevels + "}";
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.logger;
+
+/**
+ * @author HypherionSA
+ * Collects how much time and space each compression rule used while writing a jar
+ */
+public class CompressionReport {
+
+    private final Map<String, Stats> stats = new TreeMap<>();
+
+    /**
+     * Record a written entry
+     * @param rule - The compression rule that was applied to the entry
+     * @param level - The compression level that was used. -1 if the compressed data was copied from the input
+     * @param size - The uncompressed size of the entry
+     * @param compressedSize - The size of the entry in the jar
+     * @param nanos - The time it took to compress and write the entry
+     */
+    public synchronized void record(@NotNull String rule, int level, long size, long compressedSize, long nanos) {
+        Stats ruleStats = stats.computeIfAbsent(rule, r -> new Stats(level));
+        ruleStats.entries++;
+        ruleStats.size += size;
+        ruleStats.compressedSize += compressedSize;
+        ruleStats.nanos += nanos;
+    }
+
+    /**
+     * Log the report
+     * @param lifecycle - Log at lifecycle level, instead of info
+     */
+    public synchronized void log(boolean lifecycle) {
+        StringBuilder sb = new StringBuilder("Compression report:");
+        stats.forEach((rule, ruleStats) -> sb.append(String.format("%n  %-12s %s, %d entries, %s -> %s (saved %s) in %dms",
+                rule,
+                ruleStats.level < 0 ? "raw copy" : "level " + ruleStats.level,
+                ruleStats.entries,
+                formatBytes(ruleStats.size),
+                formatBytes(ruleStats.compressedSize),
+                formatBytes(ruleStats.size - ruleStats.compressedSize),
+                ruleStats.nanos / 1_000_000)));
+
+        if (lifecycle) {
+            logger.lifecycle(sb.toString());
+        } else {
+            logger.info(sb.toString());
+        }
+    }
+
+    private static String formatBytes(long bytes) {
+        if (Math.abs(bytes) < 1024)
+            return bytes + "B";
+        if (Math.abs(bytes) < 1024 * 1024)
+            return String.format("%.1fKB", bytes / 1024.0);
+        return String.format("%.1fMB", bytes / 1024.0 / 1024.0);
+    }
+
+    private static class Stats {
+        private final int level;
+        private long entries;
+        private long size;
+        private long compressedSize;
+        private long nanos;
+
+        private Stats(int level) {
+            this.level = level;
+        }
+    }
+}
@@ -0,0 +1,492 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import lombok.Getter;
+import org.apache.commons.io.FileUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.logger;
+
+/**
+ * @author HypherionSA
+ * Holds the contents of merged entries outside the java heap, so merging large jars doesn't fill up the heap of the gradle daemon.
+ * Small entries are copied into pooled direct buffers, up to the memory budget. Large entries, and everything that doesn't fit
+ * in the budget anymore, are written to a temporary file, and read back through memory mapping.
+ * The memory budget is shared by all the stores that are open at the same time, so merging several targets in parallel
+ * doesn't multiply it. Space in a pooled buffer is reused once all the entries in it are released, and space in the spill file
+ * is reused as soon as the entry in it is released
+ */
+public class EntryStore implements Closeable {
+
+    // Default memory budget, in bytes
+    public static final long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+    // Default size above which entries are always written to disk, in bytes
+    public static final int DEFAULT_SPILL_THRESHOLD = 1024 * 1024;
+
+    // Size of a single pooled buffer. Larger thresholds use larger buffers, so every in memory entry fits in one buffer
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // Spilled entries smaller than this are read with a normal read, mapping them costs more than it saves
+    private static final int MAP_THRESHOLD = 64 * 1024;
+
+    // Direct memory held by all open stores, checked against the budget
+    private static final AtomicLong SHARED_MEMORY = new AtomicLong();
+
+    private final long memoryBudget;
+    private final int spillThreshold;
+    private final int bufferSize;
+    private final File spillDir;
+
+    // Pooled buffers
+    private final Deque<Buffer> freeBuffers = new ArrayDeque<>();
+    private Buffer currentBuffer;
+    private long allocatedMemory;
+    private boolean directMemoryExhausted;
+    private boolean budgetExhausted;
+
+    // Spill file. Created when the first entry is spilled
+    private File spillFile;
+    private FileChannel spillChannel;
+    private long spillPosition;
+
+    // Released regions of the spill file, by offset. Neighbouring regions are joined
+    private final TreeMap<Long, Long> freeRegions = new TreeMap<>();
+
+    // Stats
+    @Getter private long memoryEntries;
+    @Getter private long spilledEntries;
+    @Getter private long spilledBytes;
+    @Getter private long peakMemory;
+
+    /**
+     * Create a new store
+     * @param memoryBudget - The maximum amount of direct memory used for entries by all open stores, in bytes. 0 writes all entries to disk
+     * @param spillThreshold - Entries larger than this are always written to disk, in bytes
+     * @param spillDir - The directory the spill file is created in. Null uses the system temp directory
+     */
+    public EntryStore(long memoryBudget, int spillThreshold, @Nullable File spillDir) {
+        this.memoryBudget = Math.max(memoryBudget, 0);
+        this.spillThreshold = Math.max(spillThreshold, 0);
+        this.bufferSize = (int) Math.min(this.memoryBudget, Math.max(BUFFER_SIZE, this.spillThreshold));
+        this.spillDir = spillDir;
+    }
+
+    /**
+     * Store an entry
+     * @param data - The contents of the entry
+     * @return - The stored entry
+     * @throws IOException - Thrown if the entry cannot be written to disk
+     */
+    @NotNull
+    public Payload put(byte @NotNull [] data) throws IOException {
+        Payload payload = allocate(data.length);
+        if (payload.buffer != null) {
+            ByteBuffer view = payload.buffer.data.duplicate();
+            view.position((int) payload.offset);
+            view.put(data);
+        } else {
+            writeFully(ByteBuffer.wrap(data), payload.offset);
+        }
+        return payload;
+    }
+
+    /**
+     * Store an entry, reading it directly from a stream, without copying it to the heap first
+     * @param stream - The stream to read the contents from
+     * @param length - The amount of bytes to read
+     * @return - The stored entry
+     * @throws IOException - Thrown if the stream ends early, or the entry cannot be written to disk
+     */
+    @NotNull
+    public Payload put(@NotNull InputStream stream, long length) throws IOException {
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("Entry is too large to store: " + length + " bytes");
+
+        Payload payload = allocate((int) length);
+        byte[] chunk = new byte[(int) Math.min(length, 65536)];
+        long position = payload.offset;
+        int remaining = (int) length;
+
+        while (remaining > 0) {
+            int read = stream.read(chunk, 0, Math.min(chunk.length, remaining));
+            if (read == -1)
+                throw new EOFException("Entry ended " + remaining + " bytes early");
+
+            if (payload.buffer != null) {
+                ByteBuffer view = payload.buffer.data.duplicate();
+                view.position((int) position);
+                view.put(chunk, 0, read);
+            } else {
+                writeFully(ByteBuffer.wrap(chunk, 0, read), position);
+            }
+            position += read;
+            remaining -= read;
+        }
+
+        return payload;
+    }
+
+    /**
+     * Reserve space for an entry, in a pooled buffer if it fits, or in the spill file otherwise
+     * @param length - The size of the entry
+     * @return - The reserved entry
+     * @throws IOException - Thrown if the spill file cannot be created
+     */
+    private synchronized Payload allocate(int length) throws IOException {
+        if (bufferSize > 0 && length <= spillThreshold && length <= bufferSize) {
+            Buffer buffer = currentBuffer;
+            if (buffer == null || buffer.data.capacity() - buffer.position < length)
+                buffer = nextBuffer();
+
+            if (buffer != null) {
+                Payload payload = new Payload(this, buffer, buffer.position, length);
+                buffer.position += length;
+                buffer.entries++;
+                memoryEntries++;
+                return payload;
+            }
+        }
+
+        spilledEntries++;
+        spilledBytes += length;
+
+        Long reused = takeFreeRegion(length);
+        if (reused != null)
+            return new Payload(this, null, reused, length);
+
+        if (spillChannel == null) {
+            spillFile = spillDir == null
+                    ? Files.createTempFile("entries", ".spill").toFile()
+                    : Files.createTempFile(FileTools.getOrCreate(spillDir).toPath(), "entries", ".spill").toFile();
+            spillFile.deleteOnExit();
+            spillChannel = FileChannel.open(spillFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        Payload payload = new Payload(this, null, spillPosition, length);
+        spillPosition += length;
+        return payload;
+    }
+
+    /**
+     * Take space for an entry from the released regions of the spill file
+     * @param length - The size of the entry
+     * @return - The offset of the space, or null if no released region is large enough
+     */
+    @Nullable
+    private Long takeFreeRegion(int length) {
+        for (Map.Entry<Long, Long> region : freeRegions.entrySet()) {
+            long offset = region.getKey();
+            long size = region.getValue();
+            if (size < length)
+                continue;
+
+            freeRegions.remove(offset);
+            if (size > length)
+                freeRegions.put(offset + length, size - length);
+            return offset;
+        }
+        return null;
+    }
+
+    /**
+     * Give the space of a released entry back to the spill file, joining it with the released regions next to it
+     * @param offset - The offset of the entry
+     * @param length - The size of the entry
+     */
+    private void freeRegion(long offset, long length) {
+        if (length == 0)
+            return;
+
+        Map.Entry<Long, Long> before = freeRegions.floorEntry(offset);
+        if (before != null && before.getKey() + before.getValue() == offset) {
+            freeRegions.remove(before.getKey());
+            offset = before.getKey();
+            length += before.getValue();
+        }
+
+        Long after = freeRegions.remove(offset + length);
+        if (after != null)
+            length += after;
+
+        // A region at the end of the file is simply written over by the next entry
+        if (offset + length == spillPosition) {
+            spillPosition = offset;
+        } else {
+            freeRegions.put(offset, length);
+        }
+    }
+
+    /**
+     * Replace the current buffer with an empty one, from the pool or newly allocated
+     * @return - The new buffer, or null if the memory budget is used up
+     */
+    private Buffer nextBuffer() {
+        Buffer previous = currentBuffer;
+        currentBuffer = null;
+        if (previous != null && previous.entries == 0)
+            recycle(previous);
+
+        Buffer buffer = freeBuffers.poll();
+        if (buffer == null && !directMemoryExhausted && reserveMemory(bufferSize)) {
+            try {
+                buffer = new Buffer(ByteBuffer.allocateDirect(bufferSize));
+                allocatedMemory += bufferSize;
+                peakMemory = Math.max(peakMemory, allocatedMemory);
+            } catch (OutOfMemoryError e) {
+                // The JVM limits direct memory separately from the budget. Everything else goes to disk
+                SHARED_MEMORY.addAndGet(-bufferSize);
+                directMemoryExhausted = true;
+                logger.info("Direct memory is exhausted after " + FileUtils.byteCountToDisplaySize(allocatedMemory) + ", writing the remaining entries to disk");
+            }
+        }
+
+        if (buffer == null)
+            budgetExhausted = true;
+
+        currentBuffer = buffer;
+        return buffer;
+    }
+
+    /**
+     * Reserve direct memory from the budget shared by all open stores
+     * @param size - The amount of memory to reserve, in bytes
+     * @return - True if the memory fits in the budget
+     */
+    private boolean reserveMemory(long size) {
+        while (true) {
+            long used = SHARED_MEMORY.get();
+            if (used + size > memoryBudget)
+                return false;
+            if (SHARED_MEMORY.compareAndSet(used, used + size))
+                return true;
+        }
+    }
+
+    private synchronized void release(Payload payload) {
+        Buffer buffer = payload.buffer;
+        if (buffer == null) {
+            if (spillChannel != null)
+                freeRegion(payload.offset, payload.length);
+            return;
+        }
+
+        buffer.entries--;
+        if (buffer.entries == 0) {
+            if (buffer == currentBuffer) {
+                buffer.position = 0;
+            } else {
+                recycle(buffer);
+            }
+        }
+    }
+
+    private void recycle(Buffer buffer) {
+        buffer.position = 0;
+        freeBuffers.push(buffer);
+    }
+
+    private void writeFully(ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += spillChannel.write(data, position);
+        }
+    }
+
+    /**
+     * Read a stored entry
+     * @param payload - The stored entry
+     * @return - A buffer containing only the contents of the entry
+     * @throws IOException - Thrown if the entry cannot be read from disk
+     */
+    private ByteBuffer read(Payload payload) throws IOException {
+        if (payload.buffer != null) {
+            ByteBuffer view = payload.buffer.data.duplicate();
+            view.position((int) payload.offset);
+            view.limit((int) payload.offset + payload.length);
+            return view.slice();
+        }
+
+        if (payload.length >= MAP_THRESHOLD)
+            return spillChannel.map(FileChannel.MapMode.READ_ONLY, payload.offset, payload.length);
+
+        ByteBuffer data = ByteBuffer.allocate(payload.length);
+        long position = payload.offset;
+        while (data.hasRemaining()) {
+            int read = spillChannel.read(data, position);
+            if (read == -1)
+                throw new EOFException("Spill file ended early");
+            position += read;
+        }
+        data.flip();
+        return data;
+    }
+
+    /**
+     * Log how many entries were kept in memory, and how many were written to disk
+     */
+    public void logStats() {
+        String message = "Stored " + memoryEntries + " entries in memory (peak " + FileUtils.byteCountToDisplaySize(peakMemory) + "), "
+                + spilledEntries + " entries on disk (" + FileUtils.byteCountToDisplaySize(spilledBytes) + ")";
+
+        // Entries spilled because of the budget, instead of their size, are worth knowing about
+        if (budgetExhausted) {
+            logger.lifecycle(message + ". The memory budget of " + FileUtils.byteCountToDisplaySize(memoryBudget) + " was used up");
+        } else {
+            logger.info(message);
+        }
+    }
+
+    /**
+     * Release all the buffers and delete the spill file. Stored entries can't be used after this
+     * @throws IOException - Thrown if the spill file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        freeBuffers.clear();
+        currentBuffer = null;
+        SHARED_MEMORY.addAndGet(-allocatedMemory);
+        allocatedMemory = 0;
+        freeRegions.clear();
+
+        if (spillChannel != null) {
+            spillChannel.close();
+            spillChannel = null;
+
+            // Mapped regions can keep the file locked on some platforms, until they are garbage collected
+            if (!spillFile.delete())
+                logger.debug("Could not delete spill file " + spillFile + ", it will be deleted on exit");
+        }
+    }
+
+    /**
+     * A pooled direct buffer. Entries are appended to it, and it's reused when all of them are released
+     */
+    private static class Buffer {
+        private final ByteBuffer data;
+        private int position;
+        private int entries;
+
+        private Buffer(ByteBuffer data) {
+            this.data = data;
+        }
+    }
+
+    /**
+     * A stored entry
+     */
+    public static class Payload {
+        private final EntryStore store;
+
+        // The pooled buffer containing the entry, or null if it's in the spill file
+        @Nullable
+        private final Buffer buffer;
+        private final long offset;
+        @Getter private final int length;
+
+        private Payload(EntryStore store, @Nullable Buffer buffer, long offset, int length) {
+            this.store = store;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * @return - True if the entry was written to disk
+         */
+        public boolean isSpilled() {
+            return buffer == null;
+        }
+
+        /**
+         * Copy the contents of the entry to the heap
+         * @return - The contents of the entry
+         * @throws IOException - Thrown if the entry cannot be read from disk
+         */
+        public byte @NotNull [] bytes() throws IOException {
+            byte[] data = new byte[length];
+            store.read(this).get(data);
+            return data;
+        }
+
+        /**
+         * @return - A stream over the contents of the entry
+         * @throws IOException - Thrown if the entry cannot be read from disk
+         */
+        @NotNull
+        public InputStream openStream() throws IOException {
+            return new ByteBufferInputStream(store.read(this));
+        }
+
+        /**
+         * Write the contents of the entry to a stream
+         * @param out - The stream to write to
+         * @throws IOException - Thrown if the entry cannot be read or written
+         */
+        public void writeTo(@NotNull OutputStream out) throws IOException {
+            ByteBuffer data = store.read(this);
+            byte[] chunk = new byte[Math.min(data.remaining(), 65536)];
+            while (data.hasRemaining()) {
+                int length = Math.min(chunk.length, data.remaining());
+                data.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+
+        /**
+         * Mark the entry as no longer used, so its memory can be reused. The entry can't be read after this
+         */
+        public void release() {
+            store.release(this);
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer data;
+
+        private ByteBufferInputStream(ByteBuffer data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return data.hasRemaining() ? data.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte @NotNull [] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!data.hasRemaining())
+                return -1;
+
+            int length = Math.min(len, data.remaining());
+            data.get(b, off, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return data.remaining();
+        }
+    }
+}
@@ -44,6 +44,22 @@ public class FileChecks {
         }
     }
 
+    /**
+     * Try to determine if the contents of a file is binary or text
+     * @param data - The contents of the file
+     * @return - True if binary
+     */
+    public static boolean isBinary(byte @NotNull [] data) {
+        int size = Math.min(data.length, 4096);
+
+        for (int i = 0; i < size; i++) {
+            if (data[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Test to see if input file is a ZIP file
      * @param file - The file to test
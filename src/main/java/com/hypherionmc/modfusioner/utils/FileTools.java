@@ -18,17 +18,20 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.CopyOption;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.Scanner;
-
-import static org.apache.commons.io.FileUtils.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * @author HypherionSA
@@ -57,6 +60,57 @@ public class FileTools {
         return file != null && file.exists();
     }
 
+    /**
+     * Identify the current version of a file without reading it. The stamp changes whenever the file is written,
+     * even when it's rebuilt with the same size within the resolution of its modification time, because it also contains
+     * the full precision modification time, the file key and, where the file system has one, the change time
+     * @param file - The file to identify
+     * @return - The stamp of the file
+     * @throws IOException - Thrown if the attributes of the file cannot be read
+     */
+    @NotNull
+    public static String fileStamp(@NotNull File file) throws IOException {
+        Path path = file.toPath();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+        StringBuilder stamp = new StringBuilder(file.getAbsolutePath())
+                .append(':').append(attributes.size())
+                .append(':').append(attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS))
+                .append(':').append(attributes.fileKey());
+
+        // The change time can't be set by tools that restore the modification time, like reproducible jar builds
+        try {
+            stamp.append(':').append(((FileTime) Files.getAttribute(path, "unix:ctime")).to(TimeUnit.NANOSECONDS));
+        } catch (UnsupportedOperationException | IllegalArgumentException ignored) { }
+
+        return stamp.toString();
+    }
+
+    /**
+     * Create the digest used to hash jars and their entries
+     * @return - A new SHA-256 digest
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Convert a hash to lowercase hex
+     * @param bytes - The hash to convert
+     * @return - The hex string of the hash
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
     /**
      * Create a directory if it doesn't exist
      * @param file - The directory to create
@@ -70,88 +124,150 @@ public class FileTools {
     }
 
     /**
-     * Move a directory from one location to another
-     * @param sourceDir - The directory to copy from
-     * @param outDir - The directory to copy to
+     * Move the contents of a directory into another directory, merging them with what's already there
+     * @param sourceDir - The directory to move from
+     * @param outDir - The directory to move to
+     * @return - What was moved, and which files were replaced
      * @throws IOException - Thrown if an IO error occurs
      */
-    public static void moveDirectory(File sourceDir, File outDir) throws IOException {
+    public static MoveReport moveDirectory(File sourceDir, File outDir) throws IOException {
+        MoveReport report = new MoveReport();
+        moveDirectory(sourceDir, outDir, 1, report);
+        return report;
+    }
+
+    /**
+     * Move the contents of a directory into another directory, merging them with what's already there.
+     * Directories that don't exist in the output yet are moved as a whole, with a single atomic rename. Directories
+     * that exist in both are merged by moving their files one by one, one level of the tree at a time, in parallel.
+     * Existing files are replaced, and recorded in the report
+     * @param sourceDir - The directory to move from
+     * @param outDir - The directory to move to
+     * @param parallelism - The maximum amount of directories to merge at the same time
+     * @param report - Collects what was moved, and which files were replaced
+     * @throws IOException - Thrown if an IO error occurs
+     */
+    public static void moveDirectory(File sourceDir, File outDir, int parallelism, MoveReport report) throws IOException {
         if (!exists(sourceDir))
             return;
 
-        File[] files = sourceDir.listFiles();
-        if (files == null)
-            return;
+        requireDirectory(sourceDir, "sourceDir");
+        Path source = sourceDir.toPath();
+        Path root = getOrCreate(outDir).toPath();
+        if (root.toRealPath().startsWith(source.toRealPath()))
+            throw new IOException("Cannot move directory: " + sourceDir + " to a subdirectory of itself: " + outDir);
+
+        List<Path[]> level = Collections.singletonList(new Path[] { source, root });
+        List<Path> mergedDirectories = new ArrayList<>();
+
+        // Every level of the tree is merged on the same threads
+        ExecutorService executor = ParallelTasks.newExecutor(parallelism);
+        try {
+            while (!level.isEmpty()) {
+                List<ParallelTasks.IOCallable<List<Path[]>>> tasks = new ArrayList<>();
+                for (Path[] pair : level) {
+                    tasks.add(() -> mergeDirectory(pair[0], pair[1], root, report));
+                }
 
-        for (File f : files) {
-            File outPath = new File(outDir, f.getName());
+                List<Path[]> nextLevel = new ArrayList<>();
+                for (List<Path[]> merges : ParallelTasks.invokeAll(executor, tasks)) {
+                    nextLevel.addAll(merges);
+                }
 
-            if (f.isDirectory()) {
-                moveDirectoryInternal(f, outPath);
+                for (Path[] pair : nextLevel) {
+                    mergedDirectories.add(pair[0]);
+                }
+                level = nextLevel;
             }
+        } finally {
+            if (executor != null)
+                executor.shutdownNow();
+        }
 
-            if (f.isFile()) {
-                moveFileInternal(f, outPath, StandardCopyOption.REPLACE_EXISTING);
-            }
+        // The merged directories are empty now. Children are deleted before their parents
+        for (int i = mergedDirectories.size() - 1; i >= 0; i--) {
+            Files.deleteIfExists(mergedDirectories.get(i));
         }
     }
 
     /**
-     * Copied from Apache Commons, with the "Directory Must Not Exist" check removed
-     * @param srcDir - The source directory
-     * @param destDir - The destination directory
+     * Move the contents of a single directory into another existing directory
+     * @param source - The directory to move from
+     * @param target - The directory to move to
+     * @param root - The output directory of the whole move. Conflicts are reported relative to it
+     * @param report - Collects what was moved, and which files were replaced
+     * @return - Sub directories that exist in both, and need to be merged as well
      * @throws IOException - Thrown if an IO error occurs
      */
-    private static void moveDirectoryInternal(final File srcDir, final File destDir) throws IOException {
-        validateMoveParameters(srcDir, destDir);
-        requireDirectory(srcDir, "srcDir");
+    private static List<Path[]> mergeDirectory(Path source, Path target, Path root, MoveReport report) throws IOException {
+        List<Path[]> merges = new ArrayList<>();
 
-        if (!srcDir.renameTo(destDir)) {
-            if (destDir.getCanonicalPath().startsWith(srcDir.getCanonicalPath() + File.separator)) {
-                throw new IOException("Cannot move directory: " + srcDir + " to a subdirectory of itself: " + destDir);
-            }
-            copyDirectory(srcDir, destDir);
-            deleteDirectory(srcDir);
-            if (srcDir.exists()) {
-                throw new IOException("Failed to delete original directory '" + srcDir +
-                        "' after copy to '" + destDir + "'");
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(source)) {
+            for (Path child : children) {
+                Path targetChild = target.resolve(child.getFileName().toString());
+
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    if (Files.isDirectory(targetChild, LinkOption.NOFOLLOW_LINKS)) {
+                        merges.add(new Path[] { child, targetChild });
+                        continue;
+                    }
+
+                    if (Files.exists(targetChild, LinkOption.NOFOLLOW_LINKS)) {
+                        report.conflict(relativePath(root, targetChild), false);
+                        Files.delete(targetChild);
+                    }
+
+                    try {
+                        Files.move(child, targetChild, StandardCopyOption.ATOMIC_MOVE);
+                        report.movedDirectory();
+                    } catch (AtomicMoveNotSupportedException e) {
+                        // Different file systems. The directory is merged file by file instead
+                        Files.createDirectory(targetChild);
+                        merges.add(new Path[] { child, targetChild });
+                    }
+                    continue;
+                }
+
+                if (Files.isDirectory(targetChild, LinkOption.NOFOLLOW_LINKS))
+                    throw new IOException("Cannot replace directory '" + targetChild + "' with file '" + child + "'");
+
+                if (Files.exists(targetChild, LinkOption.NOFOLLOW_LINKS))
+                    report.conflict(relativePath(root, targetChild), FileUtils.contentEquals(child.toFile(), targetChild.toFile()));
+
+                try {
+                    Files.move(child, targetChild, StandardCopyOption.ATOMIC_MOVE);
+                    report.movedFile(false);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(child, targetChild, StandardCopyOption.REPLACE_EXISTING);
+                    report.movedFile(true);
+                }
             }
         }
+
+        return merges;
     }
 
-    /**
-     * Copied from Apache Commons, with the "File Must Not Exist" check removed
-     * @param srcFile - The source file
-     * @param destFile - The destination file
-     * @param copyOptions - {@link StandardCopyOption} to be used with the move process
-     * @throws IOException - Thrown if an IO error occurs
-     */
-    public static void moveFileInternal(final File srcFile, final File destFile, final CopyOption... copyOptions)
-            throws IOException {
-        validateMoveParameters(srcFile, destFile);
-        requireFile(srcFile, "srcFile");
-        final boolean rename = srcFile.renameTo(destFile);
-        if (!rename) {
-            copyFile(srcFile, destFile, copyOptions);
-            if (!srcFile.delete()) {
-                FileUtils.deleteQuietly(destFile);
-                throw new IOException("Failed to delete original file '" + srcFile +
-                        "' after copy to '" + destFile + "'");
-            }
-        }
+    private static String relativePath(Path root, Path path) {
+        return root.relativize(path).toString().replace(File.separatorChar, '/');
     }
 
     /**
-     * Check that input values are not null and that the source file/directory exists
-     * @param source - The source file/directory
-     * @param destination - The destination file/directory
-     * @throws FileNotFoundException - Thrown if the source file/directory does not exist
+     * Make a file available at a second location, without copying it when possible.
+     * A hard link is used when the file system supports it, otherwise the file is copied
+     * @param source - The file to link to
+     * @param target - The new location. Replaced if it already exists
+     * @return - True if a hard link was created, false if the file was copied
+     * @throws IOException - Thrown if the file cannot be linked or copied
      */
-    private static void validateMoveParameters(final File source, final File destination) throws FileNotFoundException {
-        Objects.requireNonNull(source, "source");
-        Objects.requireNonNull(destination, "destination");
-        if (!source.exists()) {
-            throw new FileNotFoundException("Source '" + source + "' does not exist");
+    public static boolean linkOrCopy(@NotNull File source, @NotNull File target) throws IOException {
+        Files.deleteIfExists(target.toPath());
+
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+            return true;
+        } catch (UnsupportedOperationException | IOException | SecurityException e) {
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return false;
         }
     }
 
@@ -169,20 +285,6 @@ public class FileTools {
         return directory;
     }
 
-    /**
-     * Check if the source input is not a directory
-     * @param file - The source file
-     * @param name - Identifier for the error message
-     * @return - Return the file if it's valid
-     */
-    private static File requireFile(final File file, final String name) {
-        Objects.requireNonNull(file, name);
-        if (!file.isFile()) {
-            throw new IllegalArgumentException("Parameter '" + name + "' is not a file: " + file);
-        }
-        return file;
-    }
-
     /**
      * Get a list of embedded jar files from the input jar
      * @param dir - The directory the jar was extracted to
@@ -257,27 +359,7 @@ public class FileTools {
      */
     @NotNull
     public static List<File> getMixins(@NotNull File dir, boolean includeRefmaps) throws IOException {
-        List<File> files = getTextFiles(dir);
-        List<File> returnMixins = new ArrayList<>();
-
-        for (File file : files) {
-            if (FilenameUtils.getExtension(file.getName()).equalsIgnoreCase("json")) {
-                String text = FileUtils.readFileToString(file, Charset.defaultCharset());
-
-                if (includeRefmaps) {
-                    if (text.contains("\"mappings\":") || text.contains("\"data\":")) {
-                        returnMixins.add(file);
-                        continue;
-                    }
-                }
-
-                if (text.contains("\"package\":")) {
-                    returnMixins.add(file);
-                }
-            }
-        }
-
-        return returnMixins;
+        return ResourceIndex.of(dir).getMixins(includeRefmaps).stream().map(ResourceIndex.Resource::getFile).collect(Collectors.toList());
     }
 
     /**
@@ -288,18 +370,7 @@ public class FileTools {
      */
     @NotNull
     public static List<File> getRefmaps(@NotNull File dir) throws IOException {
-        List<File> files = getTextFiles(dir);
-        List<File> refmaps = new ArrayList<>();
-
-        for (File file : files) {
-            if (FilenameUtils.getExtension(file.getName()).equals("json")) {
-                String text = FileUtils.readFileToString(file, Charset.defaultCharset());
-                if (text.contains("\"mappings\":") || text.contains("\"data\":"))
-                    refmaps.add(file);
-            }
-        }
-
-        return refmaps;
+        return ResourceIndex.of(dir).getRefmaps().stream().map(ResourceIndex.Resource::getFile).collect(Collectors.toList());
     }
 
     /**
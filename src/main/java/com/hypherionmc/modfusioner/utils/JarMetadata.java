@@ -0,0 +1,325 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * @author HypherionSA
+ * Metadata of a jar, read from its central directory without opening every entry. Only the manifest is decompressed.
+ * The result is read once per input, and shared by remapping, manifest merging and the merge plan
+ */
+@Getter
+public class JarMetadata {
+
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+    // Zip record signatures
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int CENTRAL_FILE_HEADER = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+    // Sizes of the fixed parts of the zip records
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int CENTRAL_FILE_HEADER_SIZE = 46;
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    // Recently read metadata, shared by all merges in the same process. For example by fusion targets with the same input jars
+    private static final Map<String, JarMetadata> SHARED = Collections.synchronizedMap(new LinkedHashMap<String, JarMetadata>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JarMetadata> eldest) {
+            return size() > 32;
+        }
+    });
+
+    // The jar the metadata was read from
+    private final File jar;
+
+    // The first directory of every entry, in the order they first appear in the jar
+    private final Set<String> topLevelDirectories = new LinkedHashSet<>();
+
+    // The manifest of the jar, or null if it doesn't have one
+    @Nullable private Manifest manifest;
+
+    // Entry statistics. Directories are not counted
+    private int entryCount;
+    private int classCount;
+    private long size;
+    private long compressedSize;
+
+    private JarMetadata(File jar) {
+        this.jar = jar;
+    }
+
+    /**
+     * Read the metadata of a jar, or reuse it if the same jar was read recently, and hasn't been written since.
+     * Jars are identified by their {@link FileTools#fileStamp(File)}
+     * @param jar - The jar to read
+     * @return - The metadata of the jar
+     * @throws IOException - Thrown if the jar cannot be read, or is not a valid zip file
+     */
+    @NotNull
+    public static JarMetadata readShared(@NotNull File jar) throws IOException {
+        String key = FileTools.fileStamp(jar);
+        JarMetadata metadata = SHARED.get(key);
+        if (metadata == null) {
+            metadata = read(jar);
+            SHARED.put(key, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * Read the metadata of a jar
+     * @param jar - The jar to read
+     * @return - The metadata of the jar
+     * @throws IOException - Thrown if the jar cannot be read, or is not a valid zip file
+     */
+    @NotNull
+    public static JarMetadata read(@NotNull File jar) throws IOException {
+        JarMetadata metadata = new JarMetadata(jar);
+
+        try (FileChannel channel = FileChannel.open(jar.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer directory = readCentralDirectory(channel);
+            long manifestOffset = -1;
+            int manifestMethod = 0;
+            long manifestCompressedSize = 0;
+            long manifestSize = 0;
+
+            while (directory.remaining() >= CENTRAL_FILE_HEADER_SIZE) {
+                int start = directory.position();
+                if (directory.getInt(start) != CENTRAL_FILE_HEADER)
+                    throw new ZipException("Invalid central directory entry in " + jar.getName());
+
+                int method = directory.getShort(start + 10) & 0xFFFF;
+                long entryCompressedSize = directory.getInt(start + 20) & 0xFFFFFFFFL;
+                long entrySize = directory.getInt(start + 24) & 0xFFFFFFFFL;
+                int nameLength = directory.getShort(start + 28) & 0xFFFF;
+                int extraLength = directory.getShort(start + 30) & 0xFFFF;
+                int commentLength = directory.getShort(start + 32) & 0xFFFF;
+                long localOffset = directory.getInt(start + 42) & 0xFFFFFFFFL;
+
+                byte[] nameBytes = new byte[nameLength];
+                directory.position(start + CENTRAL_FILE_HEADER_SIZE);
+                directory.get(nameBytes);
+                String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+                // Sizes and offsets that don't fit in 32 bits are stored in the zip64 extra field
+                if (entrySize == 0xFFFFFFFFL || entryCompressedSize == 0xFFFFFFFFL || localOffset == 0xFFFFFFFFL) {
+                    long[] values = { entrySize, entryCompressedSize, localOffset };
+                    readZip64Extra(directory, start + CENTRAL_FILE_HEADER_SIZE + nameLength, extraLength, values);
+                    entrySize = values[0];
+                    entryCompressedSize = values[1];
+                    localOffset = values[2];
+                }
+
+                directory.position(start + CENTRAL_FILE_HEADER_SIZE + nameLength + extraLength + commentLength);
+
+                String firstDirectory = FileTools.getFirstDirectory(name);
+                if (!firstDirectory.isEmpty())
+                    metadata.topLevelDirectories.add(firstDirectory);
+
+                if (name.endsWith("/"))
+                    continue;
+
+                metadata.entryCount++;
+                metadata.size += entrySize;
+                metadata.compressedSize += entryCompressedSize;
+                if (name.endsWith(".class"))
+                    metadata.classCount++;
+
+                if (name.equals(MANIFEST)) {
+                    manifestOffset = localOffset;
+                    manifestMethod = method;
+                    manifestCompressedSize = entryCompressedSize;
+                    manifestSize = entrySize;
+                }
+            }
+
+            if (manifestOffset >= 0) {
+                byte[] data = readEntry(channel, manifestOffset, manifestMethod, manifestCompressedSize, manifestSize);
+                metadata.manifest = new Manifest(new ByteArrayInputStream(data));
+            }
+        }
+
+        return metadata;
+    }
+
+    /**
+     * Find the package architectury injects into the jar, if present
+     * @return - The name of the injected package, or null
+     */
+    @Nullable
+    public String getArchitecturyPrefix() {
+        String architectury = null;
+        for (String directory : topLevelDirectories) {
+            if (directory.startsWith("architectury_inject"))
+                architectury = directory;
+        }
+        return architectury;
+    }
+
+    /**
+     * @return - The first directory of every entry in the jar
+     */
+    @NotNull
+    public Set<String> getTopLevelDirectories() {
+        return Collections.unmodifiableSet(topLevelDirectories);
+    }
+
+    /**
+     * Locate the end of central directory record, and read the complete central directory
+     * @param channel - The open jar file
+     * @return - The central directory, positioned at the first entry
+     * @throws IOException - Thrown if the central directory cannot be found
+     */
+    private static ByteBuffer readCentralDirectory(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE + ZIP64_LOCATOR_SIZE);
+        ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+
+        int end = -1;
+        for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+
+        if (end < 0)
+            throw new ZipException("Could not find the central directory");
+
+        long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+
+        // Large jars store the location of the central directory in a zip64 record
+        if (end >= ZIP64_LOCATOR_SIZE && tail.getInt(end - ZIP64_LOCATOR_SIZE) == ZIP64_LOCATOR) {
+            long zip64Offset = tail.getLong(end - ZIP64_LOCATOR_SIZE + 8);
+            ByteBuffer zip64 = read(channel, zip64Offset, 56);
+            if (zip64.getInt(0) == ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                directorySize = zip64.getLong(40);
+                directoryOffset = zip64.getLong(48);
+            }
+        }
+
+        if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > fileSize)
+            throw new ZipException("Invalid central directory size");
+
+        return read(channel, directoryOffset, (int) directorySize);
+    }
+
+    /**
+     * Read the zip64 values of an entry. Only the values that are set to 0xFFFFFFFF in the header are present
+     * @param directory - The central directory
+     * @param offset - The offset of the extra field
+     * @param length - The length of the extra field
+     * @param values - The uncompressed size, compressed size and local header offset. Updated in place
+     */
+    private static void readZip64Extra(ByteBuffer directory, int offset, int length, long[] values) {
+        int end = offset + length;
+        while (offset + 4 <= end) {
+            int id = directory.getShort(offset) & 0xFFFF;
+            int size = directory.getShort(offset + 2) & 0xFFFF;
+
+            if (id == 0x0001) {
+                int position = offset + 4;
+                for (int i = 0; i < values.length && position + 8 <= offset + 4 + size; i++) {
+                    if (values[i] == 0xFFFFFFFFL) {
+                        values[i] = directory.getLong(position);
+                        position += 8;
+                    }
+                }
+                return;
+            }
+
+            offset += 4 + size;
+        }
+    }
+
+    /**
+     * Read and decompress a single entry
+     * @param channel - The open jar file
+     * @param localOffset - The offset of the local header of the entry
+     * @param method - The compression method of the entry
+     * @param compressedSize - The size of the entry in the jar
+     * @param size - The uncompressed size of the entry
+     * @return - The contents of the entry
+     * @throws IOException - Thrown if the entry cannot be read
+     */
+    private static byte[] readEntry(FileChannel channel, long localOffset, int method, long compressedSize, long size) throws IOException {
+        ByteBuffer header = read(channel, localOffset, LOCAL_FILE_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_FILE_HEADER)
+            throw new ZipException("Invalid local header");
+
+        long dataOffset = localOffset + LOCAL_FILE_HEADER_SIZE + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        ByteBuffer compressed = read(channel, dataOffset, (int) compressedSize);
+        byte[] raw = new byte[compressed.remaining()];
+        compressed.get(raw);
+
+        if (method == 0)
+            return raw;
+
+        if (method != 8)
+            throw new ZipException("Unsupported compression method " + method);
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(raw);
+            byte[] data = new byte[(int) size];
+            int read = 0;
+            while (read < data.length && !inflater.finished()) {
+                int count = inflater.inflate(data, read, data.length - read);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new EOFException("Unexpected end of compressed data");
+                read += count;
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Unexpected end of file");
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.logger;
+
+/**
+ * @author HypherionSA
+ * In memory cache of remapped jars, input hashes and compiled relocations. The gradle daemon, or a worker process,
+ * holds a single cache through {@link #forProcess(long)}, so repeated fuses in the same process don't start cold.
+ * Entries are keyed by the hash of their inputs and settings, the least recently used entries
+ * are removed once the cache grows too big, and values are softly referenced, so the garbage collector can
+ * reclaim them when the heap runs low
+ */
+public class MemoryCache {
+
+    // Default size of the cache, in bytes
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    // The cache of this process. It lives as long as the gradle daemon or worker process
+    private static final MemoryCache PROCESS = new MemoryCache(DEFAULT_MAX_SIZE);
+
+    // Entries in least recently used order
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+    private long maxSize;
+    private long size;
+
+    // Statistics since they were last logged
+    private long hits;
+    private long misses;
+    private long evicted;
+    private long reclaimed;
+
+    /**
+     * Create a new cache
+     * @param maxSize - The maximum size of the cache in bytes. 0 disables the cache
+     */
+    public MemoryCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the cache that is kept for as long as this process runs, and apply the configured size to it
+     * @param maxSize - The maximum size of the cache in bytes. 0 disables the cache, and releases all entries
+     * @return - The cache of this process
+     */
+    @NotNull
+    public static MemoryCache forProcess(long maxSize) {
+        PROCESS.setMaxSize(maxSize);
+        return PROCESS;
+    }
+
+    /**
+     * Change the maximum size of the cache. Entries are removed right away when the cache is now too big
+     * @param maxSize - The maximum size of the cache in bytes. 0 disables the cache, and releases all entries
+     */
+    public synchronized void setMaxSize(long maxSize) {
+        this.maxSize = Math.max(0, maxSize);
+        evict();
+    }
+
+    /**
+     * @return - True if values can be stored in the cache
+     */
+    public synchronized boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Check if a value of a certain size would be stored
+     * @param weight - The approximate size of the value in bytes
+     * @return - True if the value is not too big for the cache
+     */
+    public synchronized boolean fits(long weight) {
+        return weight <= maxSize;
+    }
+
+    /**
+     * Get a cached value, and mark it as recently used
+     * @param key - The key of the value
+     * @param type - The type of the value
+     * @return - The cached value, or null if it's not cached, or was reclaimed
+     */
+    @Nullable
+    public synchronized <T> T get(@NotNull String key, @NotNull Class<T> type) {
+        expunge();
+        if (maxSize == 0)
+            return null;
+
+        Entry entry = entries.get(key);
+        Object value = entry == null ? null : entry.get();
+
+        if (!type.isInstance(value)) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        return type.cast(value);
+    }
+
+    /**
+     * Store a value in the cache. Values that are bigger than the cache are not stored
+     * @param key - The key of the value
+     * @param value - The value. It must not be changed after it's stored
+     * @param weight - The approximate size of the value in bytes
+     */
+    public synchronized void put(@NotNull String key, @NotNull Object value, long weight) {
+        expunge();
+        if (weight > maxSize)
+            return;
+
+        Entry previous = entries.put(key, new Entry(key, value, weight, collected));
+        if (previous != null)
+            size -= previous.weight;
+
+        size += weight;
+        evict();
+    }
+
+    /**
+     * Get a cached value, or create and store it when it's not cached. The value is created without holding
+     * a lock, so two threads can create the same value at the same time
+     * @param key - The key of the value
+     * @param type - The type of the value
+     * @param weigher - Returns the approximate size of the created value in bytes
+     * @param creator - Creates the value
+     * @return - The cached, or newly created value
+     * @throws IOException - Thrown if the value cannot be created
+     */
+    @NotNull
+    public <T> T computeIfAbsent(@NotNull String key, @NotNull Class<T> type, @NotNull ToLongFunction<T> weigher, @NotNull ParallelTasks.IOCallable<T> creator) throws IOException {
+        if (!isEnabled())
+            return creator.call();
+
+        T value = get(key, type);
+        if (value == null) {
+            value = creator.call();
+            put(key, value, weigher.applyAsLong(value));
+        }
+        return value;
+    }
+
+    /**
+     * Remove all entries
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+        while (collected.poll() != null) { }
+    }
+
+    /**
+     * @return - The approximate size of all entries in bytes
+     */
+    public synchronized long getSize() {
+        expunge();
+        return size;
+    }
+
+    /**
+     * @return - The amount of entries in the cache
+     */
+    public synchronized int getEntryCount() {
+        expunge();
+        return entries.size();
+    }
+
+    /**
+     * Log how well the cache worked since the last time this was called, and reset the statistics
+     */
+    public synchronized void logStats() {
+        expunge();
+        if (hits + misses == 0)
+            return;
+
+        logger.info("Memory cache: " + hits + " hits, " + misses + " misses, " + evicted + " evicted, " + reclaimed + " reclaimed by the garbage collector. "
+                + entries.size() + " entries using " + size / 1024 / 1024 + "MB of " + maxSize / 1024 / 1024 + "MB");
+        hits = 0;
+        misses = 0;
+        evicted = 0;
+        reclaimed = 0;
+    }
+
+    /**
+     * Remove the least recently used entries, until the cache is smaller than the maximum size
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().getValue().weight;
+            iterator.remove();
+            evicted++;
+        }
+    }
+
+    /**
+     * Remove entries whose values were reclaimed by the garbage collector
+     */
+    private void expunge() {
+        Object reference;
+        while ((reference = collected.poll()) != null) {
+            Entry entry = (Entry) reference;
+
+            // The key may already hold a newer value. Removing by value doesn't change the order of the other entries
+            if (entries.remove(entry.key, entry)) {
+                size -= entry.weight;
+                reclaimed++;
+            }
+        }
+    }
+
+    /**
+     * A softly referenced value, and the space it is counted for
+     */
+    private static class Entry extends SoftReference<Object> {
+        private final String key;
+        private final long weight;
+
+        private Entry(String key, Object value, long weight, ReferenceQueue<Object> queue) {
+            super(value, queue);
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+}
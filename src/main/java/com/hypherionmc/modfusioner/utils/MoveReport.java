@@ -0,0 +1,103 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.logger;
+
+/**
+ * @author HypherionSA
+ * Collects what {@link FileTools#moveDirectory(java.io.File, java.io.File, int, MoveReport)} did, and the files that
+ * already existed in the output directory and were replaced
+ */
+public class MoveReport {
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong directories = new AtomicLong();
+    private final AtomicLong copied = new AtomicLong();
+
+    // Replaced files, by their path relative to the output directory
+    private final TreeSet<String> identicalConflicts = new TreeSet<>();
+    private final TreeSet<String> conflicts = new TreeSet<>();
+
+    void movedFile(boolean copy) {
+        files.incrementAndGet();
+        if (copy)
+            copied.incrementAndGet();
+    }
+
+    void movedDirectory() {
+        directories.incrementAndGet();
+    }
+
+    synchronized void conflict(@NotNull String path, boolean identical) {
+        (identical ? identicalConflicts : conflicts).add(path);
+    }
+
+    /**
+     * @return - The amount of files that were moved on their own. Files inside moved directories are not counted
+     */
+    public long getFiles() {
+        return files.get();
+    }
+
+    /**
+     * @return - The amount of directories that were moved as a whole
+     */
+    public long getDirectories() {
+        return directories.get();
+    }
+
+    /**
+     * @return - The amount of files that could not be moved, and were copied instead
+     */
+    public long getCopied() {
+        return copied.get();
+    }
+
+    /**
+     * @return - The paths of replaced files that had different contents, sorted
+     */
+    @NotNull
+    public synchronized List<String> getConflicts() {
+        return new ArrayList<>(conflicts);
+    }
+
+    /**
+     * @return - The paths of replaced files that had the same contents, sorted
+     */
+    @NotNull
+    public synchronized List<String> getIdenticalConflicts() {
+        return new ArrayList<>(identicalConflicts);
+    }
+
+    /**
+     * Log the report. Replaced files with different contents are logged at lifecycle level, because only the last one ends up in the jar
+     */
+    public synchronized void log() {
+        logger.info("Moved " + files + " files and " + directories + " directories" + (copied.get() > 0 ? ", " + copied + " files had to be copied" : ""));
+
+        if (!identicalConflicts.isEmpty())
+            logger.info(identicalConflicts.size() + " files exist in more than one jar with the same contents: " + String.join(", ", identicalConflicts));
+
+        if (!conflicts.isEmpty()) {
+            List<String> shown = new ArrayList<>(conflicts).subList(0, Math.min(conflicts.size(), 10));
+            logger.lifecycle(conflicts.size() + " files exist in more than one jar with different contents, only the last one is kept: "
+                    + String.join(", ", shown) + (conflicts.size() > shown.size() ? " and " + (conflicts.size() - shown.size()) + " more" : ""));
+            logger.info("All replaced files: " + String.join(", ", conflicts));
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.logger;
+
+/**
+ * @author HypherionSA
+ * Finds nested jars that are bundled by more than one platform with the same contents. Each platform renames its
+ * nested jars, so without this the fused jar ships a copy of a shared library for every platform. The first copy,
+ * in merge order, is kept, and the loader metadata of the other platforms is pointed at it
+ */
+public class NestedJarDeduplicator {
+
+    // Loader metadata files that list nested jars by their path
+    public static final List<String> METADATA_FILES = Collections.unmodifiableList(Arrays.asList(
+            "fabric.mod.json",
+            "quilt.mod.json",
+            "META-INF/jarjar/metadata.json"
+    ));
+
+    // Paths of the nested jars, grouped by their contents, in the order they were added
+    private final Map<String, List<String>> jars = new LinkedHashMap<>();
+    private final Map<String, Long> sizes = new LinkedHashMap<>();
+
+    /**
+     * Check if a path is a nested jar. Same rule as {@link ResourceIndex}
+     * @param path - The path of the entry. For example: META-INF/jars/forge-mylib.jar
+     * @return - True if the entry is a nested jar
+     */
+    public static boolean isNestedJar(@NotNull String path) {
+        return (path.startsWith("META-INF/jars/") || path.startsWith("META-INF/jarjar/"))
+                && path.indexOf('/', path.indexOf('/') + 1) == path.lastIndexOf('/')
+                && path.toLowerCase(Locale.ROOT).endsWith(".jar");
+    }
+
+    /**
+     * Add a nested jar. Jars must be added in merge order
+     * @param path - The path of the jar in the fused jar
+     * @param contents - The uncompressed contents of the jar. It is read fully, but not closed
+     * @return - The size of the jar in bytes
+     * @throws IOException - Thrown if the jar cannot be read
+     */
+    public long add(@NotNull String path, @NotNull InputStream contents) throws IOException {
+        MessageDigest digest = FileTools.newDigest();
+        byte[] buffer = new byte[65536];
+        long size = 0;
+        int read;
+        while ((read = contents.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            size += read;
+        }
+
+        String key = FileTools.toHex(digest.digest()) + ":" + size;
+        jars.computeIfAbsent(key, k -> new ArrayList<>()).add(path);
+        sizes.put(key, size);
+        return size;
+    }
+
+    /**
+     * Get the nested jars that can be removed, and the copy that replaces them
+     * @return - The paths of the duplicate jars, mapped to the path of the jar that is kept
+     */
+    @NotNull
+    public Map<String, String> getReplacements() {
+        Map<String, String> replacements = new LinkedHashMap<>();
+        for (List<String> paths : jars.values()) {
+            for (int i = 1; i < paths.size(); i++) {
+                replacements.put(paths.get(i), paths.get(0));
+            }
+        }
+        return replacements;
+    }
+
+    /**
+     * @return - The amount of bytes saved, before compression, by storing the duplicate jars once
+     */
+    public long getSavedBytes() {
+        long saved = 0;
+        for (Map.Entry<String, List<String>> entry : jars.entrySet()) {
+            saved += sizes.get(entry.getKey()) * (entry.getValue().size() - 1);
+        }
+        return saved;
+    }
+
+    /**
+     * Log which nested jars were stored once, and how much space that saved
+     */
+    public void log() {
+        Map<String, String> replacements = getReplacements();
+        if (replacements.isEmpty())
+            return;
+
+        logger.lifecycle("Stored " + replacements.size() + " duplicate nested jars once, saving " + getSavedBytes() / 1024 + "KB");
+        replacements.forEach((duplicate, kept) -> logger.info("Nested jar " + duplicate + " is the same as " + kept));
+    }
+}
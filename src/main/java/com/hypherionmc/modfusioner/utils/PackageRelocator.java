@@ -0,0 +1,242 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * @author HypherionSA
+ * In memory package relocator used by the streaming merge. When more than one relocation matches a name,
+ * the longest one is used. Both merge paths relocate with the output of {@link #compose(Map, Map)}, which is sorted
+ * longest first, so the first match used by the legacy merge is the same relocation
+ */
+public class PackageRelocator extends Remapper {
+
+    private final List<String[]> relocations = new ArrayList<>();
+
+    // Finds the relocation of a name, by the path form of the relocated package
+    private final PrefixMatcher matcher;
+
+    /**
+     * Create a new relocator
+     * @param relocations - Packages to relocate. For example: com.mymod -> forge.com.mymod
+     */
+    public PackageRelocator(@NotNull Map<String, String> relocations) {
+        relocations.forEach((from, to) -> this.relocations.add(new String[] { from, to, from.replace('.', '/'), to.replace('.', '/') }));
+        this.matcher = PrefixMatcher.compile(this.relocations.stream().map(relocation -> relocation[2]).collect(Collectors.toList()));
+    }
+
+    /**
+     * Create a relocator. Relocators are kept in memory, and reused for the same relocations
+     * @param cache - The cache the relocators are kept in
+     * @param relocations - Packages to relocate. For example: com.mymod -> forge.com.mymod
+     * @return - The relocator
+     */
+    @NotNull
+    public static PackageRelocator compile(@NotNull MemoryCache cache, @NotNull Map<String, String> relocations) {
+        StringBuilder key = new StringBuilder("package-relocator");
+        relocations.forEach((from, to) -> key.append('\0').append(from).append('\0').append(to));
+
+        PackageRelocator relocator = cache.get(key.toString(), PackageRelocator.class);
+        if (relocator == null) {
+            relocator = new PackageRelocator(relocations);
+
+            // Every relocation is held in 4 forms, and the prefix matcher needs a node per character
+            cache.put(key.toString(), relocator, key.length() * 8L + relocations.size() * 128L);
+        }
+        return relocator;
+    }
+
+    /**
+     * Combine two relocation stages into a single, ordered set of relocations. Relocating a name once with the result,
+     * using the longest matching relocation, gives the same name as relocating it with the longest matching relocation
+     * of the first stage, and then with the longest matching relocation of the second stage. The second stage only moves
+     * names produced by the first stage, so names that the first stage doesn't relocate are left alone.
+     * The result is sorted longest first, so the first matching relocation is always the longest
+     * @param first - The relocations that are applied first. For example: com.mymod -> forge.com.mymod
+     * @param second - The relocations applied to the output of the first stage. For example: forge.com.mymod.lib -> com.mymod.lib
+     * @return - The combined relocations. For example: com.mymod.lib -> com.mymod.lib, com.mymod -> forge.com.mymod
+     */
+    @NotNull
+    public static Map<String, String> compose(@NotNull Map<String, String> first, @NotNull Map<String, String> second) {
+        // The result can only change at a relocation of the first stage, or where a second stage relocation starts inside its output
+        Set<String> candidates = new HashSet<>(first.keySet());
+        first.forEach((from, to) -> second.keySet().forEach(secondFrom -> {
+            if (isPrefix(to, secondFrom))
+                candidates.add(from + secondFrom.substring(to.length()));
+        }));
+
+        // Shortest first, so a candidate is only kept when the shorter relocations give it a different name
+        List<String> sorted = new ArrayList<>(candidates);
+        sorted.sort(Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()));
+
+        Map<String, String> composed = new LinkedHashMap<>();
+        for (String from : sorted) {
+            String relocated = relocate(first, from);
+            String to = relocated == null ? from : orSelf(relocate(second, relocated), relocated);
+            if (!to.equals(orSelf(relocate(composed, from), from)))
+                composed.put(from, to);
+        }
+
+        Map<String, String> longestFirst = new LinkedHashMap<>();
+        for (int i = sorted.size() - 1; i >= 0; i--) {
+            String from = sorted.get(i);
+            if (composed.containsKey(from))
+                longestFirst.put(from, composed.get(from));
+        }
+        return longestFirst;
+    }
+
+    /**
+     * Relocate a package name with the longest matching relocation
+     * @param relocations - The relocations to check
+     * @param name - The package name to relocate
+     * @return - The relocated name, or null if no relocation matched
+     */
+    private static String relocate(Map<String, String> relocations, String name) {
+        String match = null;
+        for (String from : relocations.keySet()) {
+            if (isPrefix(from, name) && (match == null || from.length() > match.length()))
+                match = from;
+        }
+        return match == null ? null : relocations.get(match) + name.substring(match.length());
+    }
+
+    private static boolean isPrefix(String prefix, String name) {
+        return name.replace('.', '/').startsWith(prefix.replace('.', '/'));
+    }
+
+    private static String orSelf(String relocated, String name) {
+        return relocated == null ? name : relocated;
+    }
+
+    /**
+     * Check if this relocator will ever change anything
+     * @return - True if there are no relocations
+     */
+    public boolean isEmpty() {
+        return relocations.isEmpty();
+    }
+
+    /**
+     * Relocate a file path inside a jar
+     * @param path - The path of the entry. For example: com/mymod/Test.class
+     * @return - The relocated path, or the input if no relocation matched
+     */
+    public String relocatePath(@NotNull String path) {
+        String relocated = relocate(path, false);
+        return relocated == null ? path : relocated;
+    }
+
+    /**
+     * Relocate the bytecode of a class
+     * @param bytes - The input class file
+     * @return - The relocated class file
+     */
+    public byte[] relocateClass(byte[] bytes) {
+        if (isEmpty())
+            return bytes;
+
+        ClassReader reader = new ClassReader(bytes);
+        ClassWriter writer = new ClassWriter(0);
+        reader.accept(new ClassRemapper(writer, this), 0);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Relocate and optimize the bytecode of a class in a single pass
+     * @param bytes - The input class file
+     * @param optimizer - Removes attributes before the class is relocated
+     * @return - The relocated and optimized class file
+     */
+    public byte[] relocateClass(byte[] bytes, @NotNull ClassOptimizer optimizer) {
+        if (!optimizer.isEnabled())
+            return relocateClass(bytes);
+
+        ClassReader reader = new ClassReader(bytes);
+        ClassWriter writer = new ClassWriter(0);
+        reader.accept(optimizer.wrap(new ClassRemapper(writer, this)), 0);
+        return writer.toByteArray();
+    }
+
+    @Override
+    public String map(String internalName) {
+        String relocated = relocate(internalName, false);
+        return relocated == null ? internalName : relocated;
+    }
+
+    @Override
+    public Object mapValue(Object value) {
+        if (value instanceof String) {
+            String relocated = relocate((String) value, true);
+            if (relocated != null)
+                return relocated;
+        }
+        return super.mapValue(value);
+    }
+
+    /**
+     * Relocate a class name, path or type descriptor. Nothing is allocated when no relocation matches
+     * @param name - The input name
+     * @param isClass - Should dotted class names also be checked
+     * @return - The relocated name, or null if nothing matched
+     */
+    private String relocate(String name, boolean isClass) {
+        int start = 0;
+        int end = name.length();
+
+        // Type descriptors, like [Lcom/mymod/Test;
+        int arrays = 0;
+        while (arrays < end && name.charAt(arrays) == '[') arrays++;
+        if (end > arrays + 2 && name.charAt(arrays) == 'L' && name.charAt(end - 1) == ';') {
+            start = arrays + 1;
+            end--;
+        }
+
+        // Only the name of a class file is relocated, not its extension
+        int matchEnd = name.startsWith(".class", end - 6) && end - 6 >= start ? end - 6 : end;
+
+        // Dotted class names are matched as paths, and relocated with the dotted relocation
+        boolean dotted = isClass && name.indexOf('/', start) < 0;
+
+        int offset = start;
+        int index = matcher.match(name, offset, matchEnd, dotted);
+        if (index < 0 && matchEnd > start && name.charAt(start) == '/') {
+            offset = start + 1;
+            index = matcher.match(name, offset, matchEnd, dotted);
+        }
+
+        if (index < 0)
+            return null;
+
+        String[] relocation = relocations.get(index);
+        String from = dotted ? relocation[0] : relocation[2];
+        String to = dotted ? relocation[1] : relocation[3];
+
+        // A relocation written as a path never changes a dotted name
+        if (!name.startsWith(from, offset))
+            return name;
+
+        return name.substring(0, offset) + to + name.substring(offset + from.length());
+    }
+}
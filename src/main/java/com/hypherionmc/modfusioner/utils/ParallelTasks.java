@@ -0,0 +1,130 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author HypherionSA
+ * Utility class to run independent processing steps at the same time
+ */
+public class ParallelTasks {
+
+    /**
+     * Run a list of tasks, using up to the specified amount of threads
+     * @param parallelism - The maximum amount of tasks to run at the same time. 1 or less runs them one after another
+     * @param tasks - The tasks to run
+     * @return - The results of the tasks, in the same order as the input
+     * @throws IOException - Thrown if any of the tasks failed with an IO error
+     */
+    @NotNull
+    public static <T> List<T> invokeAll(int parallelism, @NotNull List<IOCallable<T>> tasks) throws IOException {
+        if (parallelism <= 1 || tasks.size() <= 1)
+            return invokeAll(null, tasks);
+
+        ExecutorService executor = newExecutor(Math.min(parallelism, tasks.size()));
+        try {
+            return invokeAll(executor, tasks);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Create a thread pool for {@link #invokeAll(ExecutorService, List)}. Reuse it for work that is submitted in several
+     * steps, and shut it down when all the steps are done
+     * @param parallelism - The maximum amount of tasks to run at the same time
+     * @return - The thread pool, or null when the tasks should run one after another
+     */
+    @Nullable
+    public static ExecutorService newExecutor(int parallelism) {
+        if (parallelism <= 1)
+            return null;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "ModFusioner Worker " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Run a list of tasks on an existing thread pool, and wait for all of them
+     * @param executor - The thread pool to use. Null runs the tasks one after another
+     * @param tasks - The tasks to run
+     * @return - The results of the tasks, in the same order as the input
+     * @throws IOException - Thrown if any of the tasks failed with an IO error
+     */
+    @NotNull
+    public static <T> List<T> invokeAll(@Nullable ExecutorService executor, @NotNull List<IOCallable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>();
+
+        if (executor == null || tasks.size() <= 1) {
+            for (IOCallable<T> task : tasks) {
+                results.add(task.call());
+            }
+            return results;
+        }
+
+        // Work done on the worker threads is added to the phase that submitted it
+        PhaseReport.Phase phase = PhaseReport.current();
+
+        List<Future<T>> futures = new ArrayList<>();
+        try {
+            for (IOCallable<T> task : tasks) {
+                futures.add(executor.submit(() -> phase == null ? task.call() : phase.track(task)));
+            }
+
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for tasks to finish", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof UncheckedIOException)
+                throw ((UncheckedIOException) cause).getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            // A shared thread pool outlives this call, so tasks that didn't run yet are cancelled when one failed
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * A processing step that can throw an IO error
+     * @param <T> - The result of the step
+     */
+    @FunctionalInterface
+    public interface IOCallable<T> {
+        T call() throws IOException;
+    }
+}
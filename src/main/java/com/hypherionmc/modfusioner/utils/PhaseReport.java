@@ -0,0 +1,248 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import lombok.Getter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author HypherionSA
+ * Records the wall time, CPU time, allocated bytes, file count and bytes in/out of every phase of a fuse run.
+ * Work done by {@link ParallelTasks} is added to the phase that submitted it, so parallel phases are measured completely.
+ * The CPU time and allocations of nested phases are included in the numbers of their parents
+ */
+public class PhaseReport implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // The phase that is running on the current thread
+    private static final ThreadLocal<Phase> CURRENT = new ThreadLocal<>();
+
+    private final List<Phase> phases = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Start a new phase. It is measured until it is closed
+     * @param name - The name of the phase. For example: unpack or remap:forge
+     * @return - The running phase
+     */
+    @NotNull
+    public Phase start(@NotNull String name) {
+        Phase parent = CURRENT.get();
+        Phase phase = new Phase(name, parent == null ? null : parent.name);
+        phases.add(phase);
+        phase.begin();
+        return phase;
+    }
+
+    /**
+     * @return - All the recorded phases, in the order they were started
+     */
+    @NotNull
+    public List<Phase> getPhases() {
+        synchronized (phases) {
+            return new ArrayList<>(phases);
+        }
+    }
+
+    /**
+     * Get the phase that is running on the current thread
+     * @return - The running phase, or null
+     */
+    @Nullable
+    public static Phase current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Write the report as JSON
+     * @param file - The file to write to
+     * @throws IOException - Thrown if the report cannot be written
+     */
+    public void write(@NotNull File file) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        Files.write(file.toPath(), toJson().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return - The report as JSON
+     */
+    @NotNull
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n  \"phases\": [");
+        List<Phase> phases = getPhases();
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append(String.format(Locale.ROOT,
+                    "    {\"name\": \"%s\", \"parent\": %s, \"wallMillis\": %.3f, \"cpuMillis\": %.3f, \"allocatedBytes\": %d, \"files\": %d, \"bytesIn\": %d, \"bytesOut\": %d}",
+                    escape(phase.name),
+                    phase.parent == null ? "null" : "\"" + escape(phase.parent) + "\"",
+                    phase.wallNanos / 1_000_000.0,
+                    phase.cpuNanos.get() / 1_000_000.0,
+                    phase.allocatedBytes.get(),
+                    phase.files.get(),
+                    phase.bytesIn.get(),
+                    phase.bytesOut.get()));
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * A single measured phase
+     */
+    @Getter
+    public static class Phase implements Serializable, AutoCloseable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+
+        // The phase this phase was started in, if any
+        @Nullable
+        private final String parent;
+
+        private long wallNanos;
+        private final AtomicLong cpuNanos = new AtomicLong();
+        private final AtomicLong allocatedBytes = new AtomicLong();
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong bytesIn = new AtomicLong();
+        private final AtomicLong bytesOut = new AtomicLong();
+
+        // Measurement of the thread that started the phase
+        private transient long startNanos;
+        private transient ThreadUsage startUsage;
+        private transient Phase previous;
+
+        private Phase(String name, @Nullable String parent) {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        private void begin() {
+            previous = CURRENT.get();
+            CURRENT.set(this);
+            startUsage = ThreadUsage.now();
+            startNanos = System.nanoTime();
+        }
+
+        /**
+         * Run part of this phase on the current thread, and add its CPU time and allocations to the phase and its parents.
+         * Used for work that runs on a different thread than the one that started the phase
+         * @param task - The work to run
+         * @return - The result of the work
+         * @throws IOException - Thrown if the work fails
+         */
+        public <T> T track(@NotNull ParallelTasks.IOCallable<T> task) throws IOException {
+            Phase previousPhase = CURRENT.get();
+            CURRENT.set(this);
+            ThreadUsage start = ThreadUsage.now();
+            try {
+                return task.call();
+            } finally {
+                ThreadUsage end = ThreadUsage.now();
+                for (Phase phase = this; phase != null; phase = phase.previous) {
+                    end.addDifference(start, phase);
+                }
+                CURRENT.set(previousPhase);
+            }
+        }
+
+        /**
+         * Add processed files to this phase
+         * @param count - The number of files
+         * @return - This phase
+         */
+        public Phase addFiles(long count) {
+            files.addAndGet(count);
+            return this;
+        }
+
+        /**
+         * Add read bytes to this phase
+         * @param bytes - The number of bytes
+         * @return - This phase
+         */
+        public Phase addBytesIn(long bytes) {
+            bytesIn.addAndGet(bytes);
+            return this;
+        }
+
+        /**
+         * Add written bytes to this phase
+         * @param bytes - The number of bytes
+         * @return - This phase
+         */
+        public Phase addBytesOut(long bytes) {
+            bytesOut.addAndGet(bytes);
+            return this;
+        }
+
+        /**
+         * Finish the phase
+         */
+        @Override
+        public void close() {
+            wallNanos = System.nanoTime() - startNanos;
+            ThreadUsage.now().addDifference(startUsage, this);
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * CPU time and allocated bytes of the current thread, as far as the JVM exposes them
+     */
+    private static class ThreadUsage {
+
+        private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+        private final long cpuNanos;
+        private final long allocatedBytes;
+
+        private ThreadUsage(long cpuNanos, long allocatedBytes) {
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        private static ThreadUsage now() {
+            long cpu = THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+            long allocated = -1;
+            if (THREADS instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+                if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())
+                    allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+            return new ThreadUsage(cpu, allocated);
+        }
+
+        private void addDifference(ThreadUsage start, Phase phase) {
+            if (start.cpuNanos >= 0 && cpuNanos >= 0)
+                phase.cpuNanos.addAndGet(cpuNanos - start.cpuNanos);
+            if (start.allocatedBytes >= 0 && allocatedBytes >= 0)
+                phase.allocatedBytes.addAndGet(allocatedBytes - start.allocatedBytes);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @author HypherionSA
+ * Immutable prefix trie, used to find the relocation that applies to a name without checking every relocation.
+ * The longest matching prefix wins, and lookups don't allocate anything
+ */
+public final class PrefixMatcher {
+
+    // Root of the compiled trie
+    private final Node root;
+
+    private PrefixMatcher(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Compile a list of prefixes into a matcher
+     * @param prefixes - The prefixes to match. If a prefix is listed twice, the first one is used
+     * @return - The compiled matcher
+     */
+    @NotNull
+    public static PrefixMatcher compile(@NotNull List<String> prefixes) {
+        Builder root = new Builder();
+        for (int i = 0; i < prefixes.size(); i++) {
+            Builder node = root;
+            for (char c : prefixes.get(i).toCharArray()) {
+                node = node.children.computeIfAbsent(c, k -> new Builder());
+            }
+
+            if (node.value < 0)
+                node.value = i;
+        }
+
+        return new PrefixMatcher(root.build());
+    }
+
+    /**
+     * Find the longest prefix that matches the start of a range of characters
+     * @param input - The input to check
+     * @param start - The index of the first character to check
+     * @param end - The index after the last character to check
+     * @param dotsAsSlashes - Treat dots in the input as slashes, so dotted class names match path prefixes
+     * @return - The index of the matching prefix in the compiled list, or -1 if no prefix matches
+     */
+    public int match(@NotNull String input, int start, int end, boolean dotsAsSlashes) {
+        Node node = root;
+        int match = node.value;
+
+        for (int i = start; i < end; i++) {
+            char c = input.charAt(i);
+            if (dotsAsSlashes && c == '.')
+                c = '/';
+
+            node = node.child(c);
+            if (node == null)
+                break;
+
+            if (node.value >= 0)
+                match = node.value;
+        }
+
+        return match;
+    }
+
+    /**
+     * A compiled trie node. Children are stored sorted by character, so they can be binary searched
+     */
+    private static final class Node {
+        private final char[] keys;
+        private final Node[] children;
+        private final int value;
+
+        private Node(char[] keys, Node[] children, int value) {
+            this.keys = keys;
+            this.children = children;
+            this.value = value;
+        }
+
+        private Node child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+    }
+
+    /**
+     * A mutable trie node, only used while compiling
+     */
+    private static final class Builder {
+        private final TreeMap<Character, Builder> children = new TreeMap<>();
+        private int value = -1;
+
+        private Node build() {
+            char[] keys = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+
+            int i = 0;
+            for (Map.Entry<Character, Builder> entry : children.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i] = entry.getValue().build();
+                i++;
+            }
+
+            return new Node(keys, nodes, value);
+        }
+    }
+}
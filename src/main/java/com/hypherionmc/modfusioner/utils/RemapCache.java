@@ -0,0 +1,204 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hypherionmc.modfusioner.plugin.ModFusionerPlugin.logger;
+
+/**
+ * @author HypherionSA
+ * Persistent, content addressed cache for remapped platform jars. Entries are keyed by the hash of the input jar
+ * and the settings used to remap it, and the least recently used entries are removed once the cache grows too big
+ */
+public class RemapCache {
+
+    // Keys that are being created, so merges running at the same time wait for each other, instead of remapping
+    // the same jar twice. Keys are removed once they are created, so only running work is held
+    private static final ConcurrentHashMap<String, CompletableFuture<Void>> RUNNING = new ConcurrentHashMap<>();
+
+    private final File cacheDir;
+    private final long maxSize;
+
+    /**
+     * Create a new cache
+     * @param cacheDir - The directory the cache is stored in
+     * @param maxSize - The maximum size of the cache in bytes
+     */
+    public RemapCache(@NotNull File cacheDir, long maxSize) {
+        this.cacheDir = FileTools.getOrCreate(cacheDir);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Build a cache key from the contents of a jar, and the settings used to process it
+     * @param memoryCache - Keeps the hashes of the jars, so unchanged jars are only read once
+     * @param jar - The input jar
+     * @param settings - Values that change the output. For example the group and relocations
+     * @return - The cache key
+     * @throws IOException - Thrown if the jar cannot be read
+     */
+    @NotNull
+    public static String key(@NotNull MemoryCache memoryCache, @NotNull File jar, Object... settings) throws IOException {
+        MessageDigest digest = FileTools.newDigest();
+        digest.update(hash(memoryCache, jar));
+
+        for (Object setting : settings) {
+            digest.update(String.valueOf(setting).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+
+        return FileTools.toHex(digest.digest());
+    }
+
+    /**
+     * Hash the contents of a jar. Hashes are kept in memory, so unchanged jars are only read once per daemon.
+     * A jar that is written again gets a new {@link FileTools#fileStamp(File)}, so it's always hashed again
+     * @param memoryCache - The cache the hashes are kept in
+     * @param jar - The input jar
+     * @return - The SHA-256 hash of the jar
+     * @throws IOException - Thrown if the jar cannot be read
+     */
+    private static byte[] hash(MemoryCache memoryCache, File jar) throws IOException {
+        String key = "jar-hash:" + FileTools.fileStamp(jar);
+        return memoryCache.computeIfAbsent(key, byte[].class, hash -> key.length() * 2L + hash.length, () -> {
+            MessageDigest digest = FileTools.newDigest();
+            try (InputStream stream = new FileInputStream(jar)) {
+                byte[] buffer = new byte[65536];
+                int read;
+                while ((read = stream.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+            return digest.digest();
+        });
+    }
+
+    /**
+     * Run the work that checks for, creates and stores a cache entry, while no other work for the same key runs.
+     * Work for other keys is never blocked. Don't start work for another key from inside the work
+     * @param key - The key of the entry
+     * @param work - Checks for the entry, and creates it when it's missing
+     * @return - The result of the work
+     * @throws IOException - Thrown if the work fails
+     */
+    public static <T> T exclusive(@NotNull String key, @NotNull ParallelTasks.IOCallable<T> work) throws IOException {
+        while (true) {
+            CompletableFuture<Void> running = new CompletableFuture<>();
+            CompletableFuture<Void> previous = RUNNING.putIfAbsent(key, running);
+            if (previous == null) {
+                try {
+                    return work.call();
+                } finally {
+                    RUNNING.remove(key, running);
+                    running.complete(null);
+                }
+            }
+
+            // Another merge is creating this entry. Wait for it, and check again
+            previous.join();
+        }
+    }
+
+    /**
+     * Get a cached entry, and mark it as recently used
+     * @param key - The key of the entry
+     * @return - The cached file, or null if it's not cached
+     */
+    @Nullable
+    public File get(@NotNull String key) {
+        File file = new File(cacheDir, key);
+        if (!file.isFile())
+            return null;
+
+        file.setLastModified(System.currentTimeMillis());
+        return file;
+    }
+
+    /**
+     * Store a file in the cache. The file is hard linked into the cache when possible, so it must not be changed afterwards
+     * @param key - The key of the entry
+     * @param source - The file to store
+     * @throws IOException - Thrown if an IO error occurs
+     */
+    public void put(@NotNull String key, @NotNull File source) throws IOException {
+        File temp = File.createTempFile(key, ".tmp", cacheDir);
+
+        try {
+            FileTools.linkOrCopy(source, temp);
+            Files.move(temp.toPath(), new File(cacheDir, key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Store a new entry in the cache. The entry only becomes visible once it's fully written
+     * @param key - The key of the entry
+     * @param writer - Writes the contents of the entry
+     * @throws IOException - Thrown if an IO error occurs
+     */
+    public void put(@NotNull String key, @NotNull CacheWriter writer) throws IOException {
+        File temp = File.createTempFile(key, ".tmp", cacheDir);
+
+        try {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+                writer.write(out);
+            }
+            Files.move(temp.toPath(), new File(cacheDir, key).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+    }
+
+    /**
+     * Remove the least recently used entries, until the cache is smaller than the maximum size
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public void trim() {
+        File[] files = cacheDir.listFiles(File::isFile);
+        if (files == null)
+            return;
+
+        long size = Arrays.stream(files).mapToLong(File::length).sum();
+        if (size <= maxSize)
+            return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (size <= maxSize)
+                break;
+
+            size -= file.length();
+            file.delete();
+        }
+
+        logger.info("Trimmed remap cache to " + size / 1024 / 1024 + "MB");
+    }
+
+    /**
+     * Writes the contents of a cache entry
+     */
+    @FunctionalInterface
+    public interface CacheWriter {
+        void write(OutputStream out) throws IOException;
+    }
+}
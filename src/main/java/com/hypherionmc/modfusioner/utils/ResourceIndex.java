@@ -0,0 +1,313 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import lombok.Getter;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * @author HypherionSA
+ * Index of all the resources in a jar. Every resource is read and classified once, and all lookups
+ * for text files, mixins, refmaps, access wideners, services and embedded jars are served from the index
+ */
+public class ResourceIndex {
+
+    // Amount of data used to determine if a file is binary
+    public static final int BINARY_CHECK_SIZE = 4096;
+
+    private final List<Resource> resources = new ArrayList<>();
+
+    /**
+     * Build an index from a directory a jar was extracted to
+     * @param dir - The directory the jar was extracted to
+     * @return - The index of all the files in the directory
+     * @throws IOException - Thrown when an IO error occurs
+     */
+    @NotNull
+    public static ResourceIndex of(@NotNull File dir) throws IOException {
+        ResourceIndex index = new ResourceIndex();
+        index.walk(dir, "");
+        return index;
+    }
+
+    /**
+     * Create an empty index, that entries can be added to with {@link ResourceIndex#add(String, byte[])}
+     * @return - The empty index
+     */
+    @NotNull
+    public static ResourceIndex empty() {
+        return new ResourceIndex();
+    }
+
+    /**
+     * Classify an in memory resource, and add it to the index
+     * @param path - The path of the resource inside the jar
+     * @param data - The contents of the resource
+     * @return - The classified resource
+     */
+    @NotNull
+    public Resource add(@NotNull String path, byte @NotNull [] data) {
+        return add(path, data, data.length);
+    }
+
+    /**
+     * Classify an in memory resource from the start of its contents, and add it to the index
+     * @param path - The path of the resource inside the jar
+     * @param data - The contents of the resource. Binary files only need the first few KB
+     * @param size - The full size of the resource
+     * @return - The classified resource
+     */
+    @NotNull
+    public Resource add(@NotNull String path, byte @NotNull [] data, long size) {
+        Resource resource = new Resource(path, null, size);
+        if (!resource.isClassFile())
+            resource.classify(FileChecks.isBinary(data), data, data.length);
+
+        resources.add(resource);
+        return resource;
+    }
+
+    private void walk(File dir, String prefix) throws IOException {
+        File[] list = dir.listFiles();
+        if (list == null)
+            return;
+
+        for (File file : list) {
+            if (file.isDirectory()) {
+                walk(file, prefix + file.getName() + "/");
+                continue;
+            }
+
+            Resource resource = new Resource(prefix + file.getName(), file, file.length());
+            resources.add(resource);
+
+            if (resource.isClassFile())
+                continue;
+
+            byte[] head = new byte[(int) Math.min(file.length(), BINARY_CHECK_SIZE)];
+            int read;
+            try (InputStream stream = new FileInputStream(file)) {
+                read = IOUtils.read(stream, head);
+            }
+            if (read < head.length)
+                head = Arrays.copyOf(head, read);
+
+            boolean binary = FileChecks.isBinary(head);
+
+            // Only json files are needed in full for classification, everything else is classified from the head
+            if (!binary && resource.isJson() && file.length() > read) {
+                byte[] data = FileUtils.readFileToByteArray(file);
+                resource.classify(false, data, data.length);
+            } else {
+                resource.classify(binary, head, read);
+            }
+        }
+    }
+
+    /**
+     * Rename a resource. Resources can only be renamed once, so they don't end up with multiple prefixes
+     * @param resource - The resource to rename
+     * @param newName - The new file name of the resource
+     * @return - True if the resource was renamed
+     */
+    @SuppressWarnings("ResultOfMethodCallIgnored")
+    public boolean rename(@NotNull Resource resource, @NotNull String newName) {
+        if (resource.renamed)
+            return false;
+
+        resource.renamed = true;
+        resource.path = resource.getParent() + newName;
+        if (resource.file != null) {
+            File renamedFile = new File(resource.file.getParentFile(), newName);
+            resource.file.renameTo(renamedFile);
+            resource.file = renamedFile;
+        }
+        return true;
+    }
+
+    /**
+     * Get all the resources in the index
+     * @return - Unmodifiable list of resources
+     */
+    @NotNull
+    public List<Resource> getResources() {
+        return Collections.unmodifiableList(resources);
+    }
+
+    /**
+     * Get all text files from the index
+     * @return - List of text files
+     */
+    @NotNull
+    public List<Resource> getTextFiles() {
+        return resources.stream().filter(Resource::isText).collect(Collectors.toList());
+    }
+
+    /**
+     * Get a list of mixin configurations from the index
+     * @param includeRefmaps - Should reference maps be included in the search
+     * @return - List of mixin configs and optionally refmaps
+     */
+    @NotNull
+    public List<Resource> getMixins(boolean includeRefmaps) {
+        return resources.stream().filter(r -> r.isMixinConfig() || (includeRefmaps && r.isRefmap())).collect(Collectors.toList());
+    }
+
+    /**
+     * Get a list of refmaps from the index
+     * @return - A list of mixin refmaps
+     */
+    @NotNull
+    public List<Resource> getRefmaps() {
+        return resources.stream().filter(Resource::isRefmap).collect(Collectors.toList());
+    }
+
+    /**
+     * Get a list of access wideners from the index
+     * @return - A list of access wideners
+     */
+    @NotNull
+    public List<Resource> getAccessWideners() {
+        return resources.stream().filter(Resource::isAccessWidener).collect(Collectors.toList());
+    }
+
+    /**
+     * Get a list of platform services from the index
+     * @param group - The group to search for
+     * @return - A list of service files
+     */
+    @NotNull
+    public List<Resource> getPlatformServices(@NotNull String group) {
+        return resources.stream().filter(r -> r.isService() && FilenameUtils.getBaseName(r.getName()).contains(group)).collect(Collectors.toList());
+    }
+
+    /**
+     * Get a list of embedded jar files from the index
+     * @return - List of embedded jars
+     */
+    @NotNull
+    public List<Resource> getEmbeddedJars() {
+        return resources.stream().filter(Resource::isNestedJar).collect(Collectors.toList());
+    }
+
+    /**
+     * A single classified file inside a jar
+     */
+    @Getter
+    public static class Resource {
+
+        // First bytes of an access widener, for files that don't use the usual extension
+        private static final byte[] ACCESS_WIDENER_HEADER = "accessWidener".getBytes(StandardCharsets.UTF_8);
+
+        // The path of the resource inside the jar, using / as separator
+        private String path;
+
+        // The file on disk, if the jar was extracted
+        @Nullable
+        private File file;
+
+        private final long size;
+        private boolean binary;
+        private boolean mixinConfig;
+        private boolean refmap;
+        private boolean accessWidener;
+        private ResourceRewriter.Format format = ResourceRewriter.Format.TEXT;
+        private final boolean service;
+        private final boolean nestedJar;
+        private boolean renamed;
+
+        private Resource(String path, @Nullable File file, long size) {
+            this.path = path;
+            this.file = file;
+            this.size = size;
+
+            String parent = getParent();
+            this.service = parent.equals("META-INF/services/");
+            this.nestedJar = (parent.equals("META-INF/jars/") || parent.equals("META-INF/jarjar/"))
+                    && FilenameUtils.getExtension(path).equalsIgnoreCase("jar");
+        }
+
+        private void classify(boolean binary, byte[] data, int length) {
+            this.binary = binary;
+            if (binary)
+                return;
+
+            this.format = ResourceRewriter.Format.of(path);
+            if (isJson() && format == ResourceRewriter.Format.TEXT) {
+                Set<String> keys = ResourceRewriter.readTopLevelKeys(data, length);
+                if (keys != null) {
+                    this.refmap = keys.contains("mappings") || keys.contains("data");
+                    this.mixinConfig = keys.contains("package");
+                    this.format = mixinConfig ? ResourceRewriter.Format.MIXIN_CONFIG : refmap ? ResourceRewriter.Format.REFMAP : ResourceRewriter.Format.TEXT;
+                } else {
+                    // Not strict json, like files with comments. Search the text instead, and relocate the file as a whole
+                    String text = new String(data, 0, length, StandardCharsets.UTF_8);
+                    this.refmap = text.contains("\"mappings\":") || text.contains("\"data\":");
+                    this.mixinConfig = text.contains("\"package\":");
+                }
+            }
+
+            this.accessWidener = FilenameUtils.getExtension(path).equals("accesswidener") || startsWith(data, length, ACCESS_WIDENER_HEADER);
+        }
+
+        private static boolean startsWith(byte[] data, int length, byte[] prefix) {
+            if (length < prefix.length)
+                return false;
+
+            for (int i = 0; i < prefix.length; i++) {
+                if (data[i] != prefix[i])
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return - The file name of the resource, without any directories
+         */
+        public String getName() {
+            return path.substring(path.lastIndexOf('/') + 1);
+        }
+
+        /**
+         * @return - The directory of the resource, including the trailing /. Empty for files in the root of the jar
+         */
+        public String getParent() {
+            return path.substring(0, path.lastIndexOf('/') + 1);
+        }
+
+        public boolean isClassFile() {
+            return FilenameUtils.getExtension(path).equalsIgnoreCase("class");
+        }
+
+        public boolean isJson() {
+            return FilenameUtils.getExtension(path).equalsIgnoreCase("json");
+        }
+
+        public boolean isText() {
+            return !binary && !isClassFile();
+        }
+    }
+}
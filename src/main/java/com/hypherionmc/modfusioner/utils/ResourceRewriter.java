@@ -0,0 +1,465 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * @author HypherionSA
+ * Structure aware relocation of mod metadata. Known json and toml files are scanned once, straight from their
+ * UTF-8 bytes, and only the strings of the fields that name classes, packages or files are relocated. Everything
+ * else, including formatting, is copied as is, and files that don't change are returned untouched.
+ * Other text files, and files that can't be parsed, are relocated as a whole with the {@link TextRelocator}
+ */
+public final class ResourceRewriter {
+
+    // Keys in mods.toml files whose values name files in the jar
+    private static final Set<String> TOML_KEYS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("config", "file")));
+
+    private ResourceRewriter() {}
+
+    /**
+     * Formats that are relocated field by field
+     */
+    public enum Format {
+        // Any other text file. All of its contents are relocated
+        TEXT(false),
+
+        // Mixin configuration. The mixin package, the refmap and the config plugin
+        MIXIN_CONFIG(false, "package", "refmap", "plugin"),
+
+        // Mixin reference map. The mixin classes, and the targets they are mapped to
+        REFMAP(true, "mappings", "data"),
+
+        // Fabric mod metadata. Entrypoints, language adapters, nested jars, mixin configs and the access widener
+        FABRIC_MOD(false, "entrypoints", "languageAdapters", "jars/file", "mixins", "accessWidener"),
+
+        // Quilt mod metadata. Same as fabric, in the quilt layout
+        QUILT_MOD(false, "quilt_loader/entrypoints", "quilt_loader/language_adapters", "quilt_loader/jars", "mixin", "access_widener"),
+
+        // Forge JarJar metadata. The paths of the nested jars
+        JARJAR_METADATA(false, "jars/path"),
+
+        // Forge and NeoForge mods.toml. Only the values of the file keys, like mixin configs
+        MODS_TOML(false);
+
+        // Paths of keys whose values are relocated. Arrays are transparent, so jars/file matches "jars": [{"file": ""}]
+        private final String[][] paths;
+
+        // Also relocate the keys below the paths
+        private final boolean keys;
+
+        // How many levels of keys are needed to match the paths
+        private final int keyDepth;
+
+        Format(boolean keys, String... paths) {
+            this.keys = keys;
+            this.paths = new String[paths.length][];
+            int keyDepth = 0;
+            for (int i = 0; i < paths.length; i++) {
+                this.paths[i] = paths[i].split("/");
+                keyDepth = Math.max(keyDepth, this.paths[i].length);
+            }
+            this.keyDepth = keyDepth;
+        }
+
+        /**
+         * Get the format of a file from its path. Mixin configs and refmaps can be named anything, and are detected
+         * from their contents by the {@link ResourceIndex}
+         * @param path - The path of the file inside the jar
+         * @return - The format of the file, or TEXT if the path is not a known metadata file
+         */
+        @NotNull
+        public static Format of(@NotNull String path) {
+            switch (path) {
+                case "fabric.mod.json":
+                    return FABRIC_MOD;
+                case "quilt.mod.json":
+                    return QUILT_MOD;
+                case "META-INF/jarjar/metadata.json":
+                    return JARJAR_METADATA;
+                case "META-INF/mods.toml":
+                case "META-INF/neoforge.mods.toml":
+                    return MODS_TOML;
+                default:
+                    return TEXT;
+            }
+        }
+
+        private boolean matches(String[] keys, int depth, boolean key) {
+            if (key && !this.keys)
+                return false;
+
+            for (String[] path : paths) {
+                if (depth < path.length)
+                    continue;
+
+                boolean matches = true;
+                for (int i = 0; i < path.length && matches; i++) {
+                    matches = path[i].equals(keys[i]);
+                }
+                if (matches)
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Relocate a file
+     * @param format - The format of the file
+     * @param data - The UTF-8 contents of the file
+     * @param relocator - The relocations to apply
+     * @return - The rewritten contents, or the same array if nothing changed
+     */
+    public static byte @NotNull [] rewrite(@NotNull Format format, byte @NotNull [] data, @NotNull TextRelocator relocator) {
+        if (relocator.isEmpty())
+            return data;
+
+        if (format == Format.TEXT)
+            return relocator.relocate(data);
+
+        Rewrite rewrite = new Rewrite(data, relocator);
+        boolean parsed = format == Format.MODS_TOML
+                ? scanToml(data, rewrite)
+                : scanJson(data, data.length, format.keyDepth, (start, end, key, keys, depth) -> {
+                    if (format.matches(keys, depth, key))
+                        rewrite.relocate(start, end);
+                });
+
+        // Not valid json or toml, so there are no fields to go by
+        if (!parsed)
+            return relocator.relocate(data);
+
+        return rewrite.finish();
+    }
+
+    /**
+     * Read the keys of the root object of a json file
+     * @param data - The UTF-8 contents of the file
+     * @param length - The amount of bytes to read
+     * @return - The keys of the root object, or null if the file is not a valid json object
+     */
+    @Nullable
+    public static Set<String> readTopLevelKeys(byte @NotNull [] data, int length) {
+        Set<String> keys = new LinkedHashSet<>();
+        boolean parsed = scanJson(data, length, 1, (start, end, key, path, depth) -> {
+            if (key && depth == 0)
+                keys.add(path[0]);
+        });
+
+        int first = skipBom(data, length);
+        while (first < length && isWhitespace(data[first])) {
+            first++;
+        }
+        return parsed && first < length && data[first] == '{' ? keys : null;
+    }
+
+    /**
+     * Receives the strings found while scanning a json file
+     */
+    private interface JsonVisitor {
+        /**
+         * @param start - The index of the first byte of the string, after the opening quote
+         * @param end - The index of the closing quote
+         * @param key - True if the string is a key
+         * @param keys - The keys of the enclosing objects, from the root down. Only filled up to the requested depth
+         * @param depth - The amount of enclosing keys. For keys, this is the index of the key itself
+         */
+        void string(int start, int end, boolean key, String[] keys, int depth);
+    }
+
+    /**
+     * Walk over all strings in a json file, without building a tree
+     * @return - False if the file is not valid json
+     */
+    private static boolean scanJson(byte[] data, int length, int keyDepth, JsonVisitor visitor) {
+        String[] keys = new String[Math.max(keyDepth, 1)];
+
+        // True for objects, false for arrays
+        boolean[] containers = new boolean[16];
+        int containerCount = 0;
+        int objects = 0;
+        boolean expectKey = false;
+        int i = skipBom(data, length);
+
+        while (i < length) {
+            byte b = data[i];
+            boolean inObject = containerCount > 0 && containers[containerCount - 1];
+
+            if (isWhitespace(b)) {
+                i++;
+                continue;
+            }
+
+            switch (b) {
+                case '{':
+                case '[':
+                    if (containerCount == containers.length)
+                        containers = Arrays.copyOf(containers, containers.length * 2);
+                    containers[containerCount++] = b == '{';
+                    if (b == '{') {
+                        if (objects < keys.length)
+                            keys[objects] = null;
+                        objects++;
+                    }
+                    expectKey = b == '{';
+                    i++;
+                    break;
+                case '}':
+                case ']':
+                    if (containerCount == 0 || inObject != (b == '}'))
+                        return false;
+                    containerCount--;
+                    if (inObject)
+                        objects--;
+                    expectKey = false;
+                    i++;
+                    break;
+                case ',':
+                    if (containerCount == 0)
+                        return false;
+                    expectKey = inObject;
+                    i++;
+                    break;
+                case ':':
+                    if (!inObject)
+                        return false;
+                    expectKey = false;
+                    i++;
+                    break;
+                case '"':
+                    int end = i + 1;
+                    while (end < length && data[end] != '"') {
+                        end += data[end] == '\\' ? 2 : 1;
+                    }
+                    if (end >= length)
+                        return false;
+
+                    if (inObject && expectKey) {
+                        // Keys are only needed as strings near the root, deeper keys are matched by their parents
+                        if (objects <= keys.length)
+                            keys[objects - 1] = new String(data, i + 1, end - i - 1, StandardCharsets.UTF_8);
+                        visitor.string(i + 1, end, true, keys, objects - 1);
+                    } else {
+                        visitor.string(i + 1, end, false, keys, Math.min(objects, keys.length));
+                    }
+                    i = end + 1;
+                    break;
+                default:
+                    // Numbers, true, false and null. Anything else, like comments, is not json
+                    if (!(b == '-' || (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z')))
+                        return false;
+                    while (i < length && !isWhitespace(data[i]) && data[i] != ',' && data[i] != '}' && data[i] != ']') {
+                        i++;
+                    }
+                    break;
+            }
+        }
+        return containerCount == 0;
+    }
+
+    /**
+     * Walk over the key value pairs of a toml file, and relocate the string values of the file keys
+     * @return - False if the file contains an unterminated string
+     */
+    private static boolean scanToml(byte[] data, Rewrite rewrite) {
+        int length = data.length;
+        boolean relocate = false;
+        boolean inValue = false;
+        int nesting = 0;
+        int i = skipBom(data, length);
+
+        while (i < length) {
+            byte b = data[i];
+
+            if (b == '#') {
+                i = lineEnd(data, i);
+                continue;
+            }
+
+            if (!inValue) {
+                if (b == '[') {
+                    // Table header
+                    i = lineEnd(data, i);
+                    continue;
+                }
+                if (isWhitespace(b)) {
+                    i++;
+                    continue;
+                }
+
+                int separator = findSeparator(data, i);
+                if (separator < 0) {
+                    i = lineEnd(data, i);
+                    continue;
+                }
+
+                relocate = TOML_KEYS.contains(lastKey(data, i, separator));
+                inValue = true;
+                nesting = 0;
+                i = separator + 1;
+                continue;
+            }
+
+            if (b == '"' || b == '\'') {
+                boolean multiline = i + 2 < length && data[i + 1] == b && data[i + 2] == b;
+                int start = i + (multiline ? 3 : 1);
+                int end = start;
+                while (end < length && !(data[end] == b && (!multiline || (end + 2 < length && data[end + 1] == b && data[end + 2] == b)))) {
+                    end += b == '"' && data[end] == '\\' ? 2 : 1;
+                }
+                if (end >= length)
+                    return false;
+
+                if (relocate)
+                    rewrite.relocate(start, end);
+                i = end + (multiline ? 3 : 1);
+                continue;
+            }
+
+            if (b == '[' || b == '{') {
+                nesting++;
+            } else if (b == ']' || b == '}') {
+                nesting--;
+            } else if (b == '\n' && nesting <= 0) {
+                inValue = false;
+            }
+            i++;
+        }
+        return true;
+    }
+
+    /**
+     * Find the = of a key value pair, skipping quoted keys
+     * @return - The index of the =, or -1 if the line has none
+     */
+    private static int findSeparator(byte[] data, int i) {
+        byte quote = 0;
+        for (; i < data.length && data[i] != '\n'; i++) {
+            byte b = data[i];
+            if (quote != 0) {
+                if (b == quote)
+                    quote = 0;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '=') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the last part of a dotted toml key, without quotes. For example: mixins.config -> config
+     */
+    private static String lastKey(byte[] data, int start, int end) {
+        while (end > start && isWhitespace(data[end - 1])) {
+            end--;
+        }
+        if (end > start && (data[end - 1] == '"' || data[end - 1] == '\'')) {
+            byte quote = data[--end];
+            int open = end - 1;
+            while (open >= start && data[open] != quote) {
+                open--;
+            }
+            return new String(data, open + 1, Math.max(end - open - 1, 0), StandardCharsets.UTF_8);
+        }
+
+        int part = end;
+        while (part > start && data[part - 1] != '.' && !isWhitespace(data[part - 1])) {
+            part--;
+        }
+        return new String(data, part, end - part, StandardCharsets.UTF_8);
+    }
+
+    private static int lineEnd(byte[] data, int i) {
+        while (i < data.length && data[i] != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipBom(byte[] data, int length) {
+        return length >= 3 && (data[0] & 0xFF) == 0xEF && (data[1] & 0xFF) == 0xBB && (data[2] & 0xFF) == 0xBF ? 3 : 0;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    /**
+     * Output of a rewrite. Nothing is copied until the first string actually changes
+     */
+    private static class Rewrite {
+        private final byte[] data;
+        private final TextRelocator relocator;
+
+        // Holds a single relocated string, reused for every string of the file
+        private final Buffer scratch = new Buffer();
+
+        @Nullable
+        private ByteArrayOutputStream out;
+
+        // Everything before this index is already written to the output
+        private int copied;
+
+        private Rewrite(byte[] data, TextRelocator relocator) {
+            this.data = data;
+            this.relocator = relocator;
+        }
+
+        private void relocate(int start, int end) {
+            scratch.reset();
+            if (!relocator.relocate(data, start, end, scratch))
+                return;
+
+            if (out == null)
+                out = new ByteArrayOutputStream(data.length + 64);
+
+            out.write(data, copied, start - copied);
+            scratch.copyTo(out);
+            copied = end;
+        }
+
+        private byte[] finish() {
+            if (out == null)
+                return data;
+
+            out.write(data, copied, data.length - copied);
+            byte[] result = out.toByteArray();
+
+            // Relocations can map text to itself
+            return Arrays.equals(result, data) ? data : result;
+        }
+    }
+
+    /**
+     * Byte buffer that can be copied to another stream without an intermediate array
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(64);
+        }
+
+        private void copyTo(ByteArrayOutputStream out) {
+            out.write(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.Supplier;
+
+/**
+ * @author HypherionSA
+ * Compiled multi-pattern text replacer, based on the Aho-Corasick algorithm. All replacements are applied to the
+ * raw UTF-8 bytes of a file in a single pass, using leftmost-longest matching. Replaced text is never matched again,
+ * and line endings are left untouched. Two phases of replacements that can't be combined are applied as two passes
+ */
+public final class TextRelocator {
+
+    private static final TextRelocator EMPTY = new TextRelocator(new LinkedHashMap<>());
+
+    // Bytes that don't appear in any pattern share the same class, to keep the transition table small
+    private final int[] byteClasses = new int[256];
+    private final int classCount;
+
+    // Automaton. transitions[state * classCount + class] is the next state
+    private final int[] transitions;
+    private final int[] depth;
+    private final int[] output;
+
+    // Patterns
+    private final byte[][] replacements;
+    private final int[] patternLengths;
+
+    // Replacements that are applied to the output of this relocator, or null if there is no second pass
+    @Nullable
+    private final TextRelocator next;
+
+    private TextRelocator(Map<String, String> relocations) {
+        this(relocations, null);
+    }
+
+    private TextRelocator(Map<String, String> relocations, @Nullable TextRelocator nextPass) {
+        this.next = nextPass;
+        List<byte[]> patterns = new ArrayList<>();
+        List<byte[]> replacementList = new ArrayList<>();
+        relocations.forEach((from, to) -> {
+            if (from == null || from.isEmpty() || to == null)
+                return;
+            patterns.add(from.getBytes(StandardCharsets.UTF_8));
+            replacementList.add(to.getBytes(StandardCharsets.UTF_8));
+        });
+
+        int classes = 1;
+        int maxStates = 1;
+        for (byte[] pattern : patterns) {
+            maxStates += pattern.length;
+            for (byte b : pattern) {
+                if (byteClasses[b & 0xFF] == 0)
+                    byteClasses[b & 0xFF] = classes++;
+            }
+        }
+        this.classCount = classes;
+
+        // Build the trie
+        int[] trie = new int[maxStates * classCount];
+        int[] stateDepth = new int[maxStates];
+        int[] stateOutput = new int[maxStates];
+        Arrays.fill(stateOutput, -1);
+        int states = 1;
+
+        this.patternLengths = new int[patterns.size()];
+        this.replacements = replacementList.toArray(new byte[0][]);
+
+        for (int p = 0; p < patterns.size(); p++) {
+            byte[] pattern = patterns.get(p);
+            patternLengths[p] = pattern.length;
+
+            int state = 0;
+            for (byte b : pattern) {
+                int index = state * classCount + byteClasses[b & 0xFF];
+                if (trie[index] == 0) {
+                    trie[index] = states;
+                    stateDepth[states] = stateDepth[state] + 1;
+                    states++;
+                }
+                state = trie[index];
+            }
+            stateOutput[state] = p;
+        }
+
+        // Compute failure links, and turn the trie into a full transition table
+        int[] fail = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < classCount; c++) {
+            if (trie[c] != 0) {
+                queue.add(trie[c]);
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            if (stateOutput[state] < 0)
+                stateOutput[state] = stateOutput[fail[state]];
+
+            for (int c = 0; c < classCount; c++) {
+                int index = state * classCount + c;
+                int next = trie[index];
+                if (next != 0) {
+                    fail[next] = trie[fail[state] * classCount + c];
+                    queue.add(next);
+                } else {
+                    trie[index] = trie[fail[state] * classCount + c];
+                }
+            }
+        }
+
+        this.transitions = Arrays.copyOf(trie, states * classCount);
+        this.depth = Arrays.copyOf(stateDepth, states);
+        this.output = Arrays.copyOf(stateOutput, states);
+    }
+
+    /**
+     * Compile a set of text replacements. Compiled relocators are kept in memory, and reused for the same replacements
+     * @param cache - The cache the compiled relocators are kept in
+     * @param relocations - The text to replace, and what to replace it with
+     * @return - The compiled relocator
+     */
+    @NotNull
+    public static TextRelocator compile(@NotNull MemoryCache cache, @NotNull Map<String, String> relocations) {
+        if (relocations.isEmpty())
+            return EMPTY;
+
+        return cached(cache, key(relocations), () -> new TextRelocator(relocations));
+    }
+
+    /**
+     * Compile two phases of text replacements. Applying the result gives the same output as applying the first
+     * replacements, and then the second replacements to the result. When no text of the second phase can overlap
+     * the text the first phase matches or produces, both phases are combined into a single pass. Otherwise the
+     * second phase is applied as a second pass
+     * @param cache - The cache the compiled relocators are kept in
+     * @param first - The replacements that are applied first
+     * @param second - The replacements that are applied to the output of the first phase
+     * @return - The compiled relocator
+     */
+    @NotNull
+    public static TextRelocator compile(@NotNull MemoryCache cache, @NotNull Map<String, String> first, @NotNull Map<String, String> second) {
+        if (second.isEmpty())
+            return compile(cache, first);
+
+        if (first.isEmpty())
+            return compile(cache, second);
+
+        if (canCombine(first, second)) {
+            Map<String, String> combined = new LinkedHashMap<>(first);
+            combined.putAll(second);
+            return compile(cache, combined);
+        }
+
+        return cached(cache, key(first) + "\1" + key(second), () -> new TextRelocator(first, compile(cache, second)));
+    }
+
+    /**
+     * Check if two phases of replacements give the same result when they are applied in a single pass. This is the case
+     * when the matches of the second phase can never share text with a match of the first phase, or with its replacement,
+     * because then both phases replace exactly the same text, whether they run one after another or together
+     * @param first - The replacements that are applied first
+     * @param second - The replacements that are applied to the output of the first phase
+     * @return - True if the phases can be combined
+     */
+    static boolean canCombine(@NotNull Map<String, String> first, @NotNull Map<String, String> second) {
+        for (Map.Entry<String, String> firstEntry : first.entrySet()) {
+            if (isUnused(firstEntry))
+                continue;
+
+            // Removed text would join the text around it, which the second phase could then match
+            if (firstEntry.getValue().isEmpty())
+                return false;
+
+            for (Map.Entry<String, String> secondEntry : second.entrySet()) {
+                if (isUnused(secondEntry))
+                    continue;
+
+                String text = secondEntry.getKey();
+                if (overlaps(text, firstEntry.getKey()) || overlaps(text, firstEntry.getValue()))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isUnused(Map.Entry<String, String> entry) {
+        return entry.getKey() == null || entry.getKey().isEmpty() || entry.getValue() == null;
+    }
+
+    /**
+     * Check if two strings can share text when they are found in the same file. That is, if one contains the other,
+     * or the end of one is the start of the other
+     */
+    private static boolean overlaps(String a, String b) {
+        if (a.contains(b) || b.contains(a))
+            return true;
+
+        return endsWithStartOf(a, b) || endsWithStartOf(b, a);
+    }
+
+    private static boolean endsWithStartOf(String a, String b) {
+        for (int length = Math.min(a.length(), b.length()) - 1; length > 0; length--) {
+            if (a.regionMatches(a.length() - length, b, 0, length))
+                return true;
+        }
+        return false;
+    }
+
+    private static String key(Map<String, String> relocations) {
+        StringBuilder key = new StringBuilder("text-relocator");
+        relocations.forEach((from, to) -> key.append('\0').append(from).append('\0').append(to));
+        return key.toString();
+    }
+
+    private static TextRelocator cached(MemoryCache cache, String key, Supplier<TextRelocator> compiler) {
+        TextRelocator relocator = cache.get(key, TextRelocator.class);
+        if (relocator == null) {
+            relocator = compiler.get();
+            cache.put(key, relocator, key.length() * 2L + relocator.weight());
+        }
+        return relocator;
+    }
+
+    /**
+     * @return - The approximate size of the compiled automaton in bytes
+     */
+    private long weight() {
+        long weight = (byteClasses.length + transitions.length + depth.length + output.length + patternLengths.length) * 4L;
+        for (byte[] replacement : replacements) {
+            weight += replacement.length + 16;
+        }
+        return next == null ? weight : weight + next.weight();
+    }
+
+    /**
+     * Apply all replacements to a string
+     * @param text - The input text
+     * @return - The rewritten text
+     */
+    @NotNull
+    public String relocate(@NotNull String text) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        byte[] relocated = relocate(data);
+        return relocated == data ? text : new String(relocated, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check if this relocator will ever change anything
+     * @return - True if there are no replacements
+     */
+    public boolean isEmpty() {
+        return replacements.length == 0 && (next == null || next.isEmpty());
+    }
+
+    /**
+     * Check if applying the replacements would change the data. Replacements that map text to itself don't count
+     * @param data - The UTF-8 contents of the file
+     * @return - True if the rewritten contents are different
+     */
+    public boolean changes(byte @NotNull [] data) {
+        byte[] relocated = relocate(data);
+        return relocated != data && !Arrays.equals(relocated, data);
+    }
+
+    /**
+     * Apply all replacements to the contents of a file
+     * @param data - The UTF-8 contents of the file
+     * @return - The rewritten contents, or the same array if nothing matched
+     */
+    public byte @NotNull [] relocate(byte @NotNull [] data) {
+        byte[] relocated = data;
+        if (replacements.length > 0) {
+            ByteArrayOutputStream out = rewrite(data, 0, data.length, null);
+            if (out != null)
+                relocated = out.toByteArray();
+        }
+        return next == null ? relocated : next.relocate(relocated);
+    }
+
+    /**
+     * Apply all replacements to a part of a file, for example a single string inside a json file
+     * @param data - The UTF-8 contents of the file
+     * @param start - The index of the first byte to rewrite
+     * @param end - The index after the last byte to rewrite
+     * @param out - The stream the rewritten part is written to. Nothing is written if nothing matched
+     * @return - True if anything matched, and the rewritten part was written to the stream
+     */
+    public boolean relocate(byte @NotNull [] data, int start, int end, @NotNull ByteArrayOutputStream out) {
+        if (next == null)
+            return replacements.length > 0 && rewrite(data, start, end, out) != null;
+
+        // The second pass needs the output of the first pass
+        byte[] part = Arrays.copyOfRange(data, start, end);
+        byte[] relocated = relocate(part);
+        if (relocated == part)
+            return false;
+
+        out.write(relocated, 0, relocated.length);
+        return true;
+    }
+
+    private ByteArrayOutputStream rewrite(byte[] data, int start, int end, ByteArrayOutputStream out) {
+        boolean matched = false;
+        int copyFrom = start;
+        int state = 0;
+        int pendingPattern = -1;
+        int pendingStart = 0;
+        int i = start;
+
+        while (true) {
+            while (i < end) {
+                state = transitions[state * classCount + byteClasses[data[i] & 0xFF]];
+
+                int pattern = output[state];
+                if (pattern >= 0) {
+                    int patternStart = i - patternLengths[pattern] + 1;
+                    if (pendingPattern < 0 || patternStart < pendingStart || (patternStart == pendingStart && patternLengths[pattern] > patternLengths[pendingPattern])) {
+                        pendingPattern = pattern;
+                        pendingStart = patternStart;
+                    }
+                }
+                i++;
+
+                // No match starting at or before the pending match can still be found, so it's safe to apply it
+                if (pendingPattern >= 0 && depth[state] < i - pendingStart)
+                    break;
+            }
+
+            if (pendingPattern < 0)
+                break;
+
+            if (out == null)
+                out = new ByteArrayOutputStream(end - start + 64);
+
+            matched = true;
+            out.write(data, copyFrom, pendingStart - copyFrom);
+            out.write(replacements[pendingPattern], 0, replacements[pendingPattern].length);
+            copyFrom = pendingStart + patternLengths[pendingPattern];
+
+            // Continue directly after the replaced text
+            i = copyFrom;
+            state = 0;
+            pendingPattern = -1;
+        }
+
+        if (!matched)
+            return null;
+
+        out.write(data, copyFrom, end - copyFrom);
+        return out;
+    }
+}
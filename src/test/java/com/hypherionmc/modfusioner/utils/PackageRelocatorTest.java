@@ -0,0 +1,192 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Composed relocations must give the same names as relocating with the first stage, and then with the second stage
+ */
+public class PackageRelocatorTest {
+
+    private static final MemoryCache CACHE = new MemoryCache(MemoryCache.DEFAULT_MAX_SIZE);
+
+    private static final Map<String, String> PLATFORM = map(
+            "com.mymod", "forge.com.mymod",
+            "architectury_inject_mymod", "forge.architectury_inject_mymod",
+            "org.lib", "forge.org.lib");
+
+    @Test
+    public void groupRelocationWithDuplicatePackage() {
+        Map<String, String> second = map("forge.com.mymod.lib", "com.mymod.lib");
+        Map<String, String> composed = PackageRelocator.compose(PLATFORM, second);
+
+        assertEquals("com.mymod.lib", composed.get("com.mymod.lib"));
+        assertEquals("com/mymod/lib/Util.class", relocate(composed, "com/mymod/lib/Util.class"));
+        assertEquals("forge/com/mymod/Main.class", relocate(composed, "com/mymod/Main.class"));
+        assertEquals("forge/org/lib/Lib.class", relocate(composed, "org/lib/Lib.class"));
+        assertComposed(PLATFORM, second, "com/mymod/lib/Util.class", "com/mymod/Main.class", "org/lib/Lib.class", "architectury_inject_mymod/Inject.class");
+    }
+
+    @Test
+    public void nestedDuplicatePackages() {
+        Map<String, String> second = map(
+                "forge.com.mymod.lib", "com.mymod.lib",
+                "forge.com.mymod.lib.impl", "com.mymod.shared.impl");
+
+        assertEquals("com/mymod/lib/Util.class", relocate(PackageRelocator.compose(PLATFORM, second), "com/mymod/lib/Util.class"));
+        assertEquals("com/mymod/shared/impl/Impl.class", relocate(PackageRelocator.compose(PLATFORM, second), "com/mymod/lib/impl/Impl.class"));
+        assertComposed(PLATFORM, second, "com/mymod/lib/Util.class", "com/mymod/lib/impl/Impl.class", "com/mymod/lib/impl/more/Deep.class", "com/mymod/Main.class");
+    }
+
+    @Test
+    public void siblingPackagesKeepTheirPlatform() {
+        Map<String, String> second = map("forge.com.mymod.api", "com.mymod.api");
+
+        assertEquals("com/mymod/api/Api.class", relocate(PackageRelocator.compose(PLATFORM, second), "com/mymod/api/Api.class"));
+        assertEquals("forge/com/mymod/core/Core.class", relocate(PackageRelocator.compose(PLATFORM, second), "com/mymod/core/Core.class"));
+        assertComposed(PLATFORM, second, "com/mymod/api/Api.class", "com/mymod/core/Core.class", "com/mymod/Main.class");
+    }
+
+    @Test
+    public void namesOutsideTheFirstStageAreNotMoved() {
+        Map<String, String> second = map("forge.com.mymod.lib", "com.mymod.lib", "org", "shaded.org");
+        Map<String, String> composed = PackageRelocator.compose(PLATFORM, second);
+
+        assertEquals("forge/com/mymod/lib/Util.class", relocate(composed, "forge/com/mymod/lib/Util.class"));
+        assertEquals("org/other/Thing.class", relocate(composed, "org/other/Thing.class"));
+        assertEquals("forge/org/lib/Lib.class", relocate(composed, "org/lib/Lib.class"));
+    }
+
+    @Test
+    public void shorterFirstStageRelocationIsNotShadowed() {
+        Map<String, String> first = map("com.mymod.api", "api.com.mymod.api", "com.mymod", "forge.com.mymod");
+        Map<String, String> second = map("forge.com.mymod.api.impl", "com.mymod.api.impl", "api.com", "x.com");
+
+        assertComposed(first, second, "com/mymod/api/impl/Impl.class", "com/mymod/api/Api.class", "com/mymod/Main.class");
+    }
+
+    @Test
+    public void resultDoesNotDependOnTheOrderOfTheStages() {
+        Map<String, String> second = map("forge.com.mymod.lib", "com.mymod.lib", "forge.com.mymod.lib.impl", "com.mymod.shared.impl", "forge.org.lib.a", "org.lib.a");
+        Map<String, String> composed = PackageRelocator.compose(PLATFORM, second);
+
+        Random random = new Random(7);
+        for (int run = 0; run < 20; run++) {
+            assertEquals(composed, PackageRelocator.compose(shuffle(PLATFORM, random), shuffle(second, random)));
+            assertEquals(new ArrayList<>(composed.keySet()), new ArrayList<>(PackageRelocator.compose(shuffle(PLATFORM, random), shuffle(second, random)).keySet()));
+        }
+    }
+
+    @Test
+    public void randomStagesMatchSequentialRelocation() {
+        Random random = new Random(42);
+        for (int run = 0; run < 5000; run++) {
+            Map<String, String> first = randomMap(random);
+            Map<String, String> second = randomMap(random);
+            for (int input = 0; input < 5; input++) {
+                assertComposed(first, second, randomName(random, 1 + random.nextInt(8)));
+            }
+        }
+    }
+
+    private static void assertComposed(Map<String, String> first, Map<String, String> second, String... names) {
+        Map<String, String> composed = PackageRelocator.compose(first, second);
+        for (String name : names) {
+            String expected = sequential(first, second, name);
+            assertEquals(expected, relocate(composed, name), () -> "first " + first + ", second " + second + ", name " + name + ", composed " + composed);
+            assertEquals(expected, firstMatch(composed, name), () -> "first " + first + ", second " + second + ", name " + name + ", composed " + composed);
+        }
+    }
+
+    private static String relocate(Map<String, String> relocations, String name) {
+        return PackageRelocator.compile(CACHE, relocations).relocatePath(name);
+    }
+
+    /**
+     * The second stage only moves names that the first stage relocated
+     */
+    private static String sequential(Map<String, String> first, Map<String, String> second, String name) {
+        String relocated = longestMatch(first, name);
+        if (relocated == null)
+            return name;
+
+        String moved = longestMatch(second, relocated);
+        return moved == null ? relocated : moved;
+    }
+
+    private static String longestMatch(Map<String, String> relocations, String name) {
+        String match = null;
+        for (String from : relocations.keySet()) {
+            if (name.startsWith(path(from)) && (match == null || from.length() > match.length()))
+                match = from;
+        }
+        return match == null ? null : path(relocations.get(match)) + name.substring(match.length());
+    }
+
+    /**
+     * The legacy merge uses the first relocation that matches
+     */
+    private static String firstMatch(Map<String, String> relocations, String name) {
+        for (Map.Entry<String, String> relocation : relocations.entrySet()) {
+            if (name.startsWith(path(relocation.getKey())))
+                return path(relocation.getValue()) + name.substring(relocation.getKey().length());
+        }
+        return name;
+    }
+
+    private static String path(String name) {
+        return name.replace('.', '/');
+    }
+
+    private static Map<String, String> randomMap(Random random) {
+        Map<String, String> map = new LinkedHashMap<>();
+        int size = 1 + random.nextInt(4);
+        for (int i = 0; i < size; i++) {
+            map.put(randomName(random, 1 + random.nextInt(4)), randomName(random, 1 + random.nextInt(4)));
+        }
+        return map;
+    }
+
+    private static String randomName(Random random, int length) {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            // A leading slash is skipped by the relocator, so names start with a letter
+            name.append("ab/".charAt(random.nextInt(i == 0 ? 2 : 3)));
+        }
+        return name.toString();
+    }
+
+    private static Map<String, String> shuffle(Map<String, String> relocations, Random random) {
+        List<String> keys = new ArrayList<>(relocations.keySet());
+        Collections.shuffle(keys, random);
+
+        Map<String, String> shuffled = new LinkedHashMap<>();
+        keys.forEach(key -> shuffled.put(key, relocations.get(key)));
+        return shuffled;
+    }
+
+    private static Map<String, String> map(String... entries) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            map.put(entries[i], entries[i + 1]);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of ModFusioner, licensed under the GNU Lesser General Public License v2.1.
+ *
+ * This project is based on, and contains code from https://github.com/PacifistMC/Forgix, licensed under the same license.
+ * See their license here: https://github.com/PacifistMC/Forgix/blob/main/LICENSE
+ *
+ * Copyright HypherionSA and Contributors
+ * Forgix Code Copyright by their contributors and Ran-Mewo
+ */
+package com.hypherionmc.modfusioner.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two phase text relocation must give the same result as applying both phases one after another
+ */
+public class TextRelocatorTest {
+
+    private static final MemoryCache CACHE = new MemoryCache(MemoryCache.DEFAULT_MAX_SIZE);
+
+    @Test
+    public void secondPhaseDoesNotMatchTextTheFirstPhaseReplaces() {
+        assertComposed(map("com.mymod", "forge.com.mymod"), map("com.mymodx", "Z"), "com.mymodx");
+    }
+
+    @Test
+    public void secondPhaseMatchesAcrossFirstPhaseReplacements() {
+        assertComposed(map("b", "X"), map("aX", "Q"), "ab");
+    }
+
+    @Test
+    public void duplicatePackagesMoveBackFromThePlatformPackage() {
+        Map<String, String> first = map("com.mymod", "forge.com.mymod", "com/mymod", "forge/com/mymod");
+        Map<String, String> second = map("forge.com.mymod.lib", "com.mymod.lib", "forge/com/mymod/lib", "com/mymod/lib");
+
+        String text = "com.mymod.Main\ncom.mymod.lib.Util\ncom/mymod/lib/Util\ncom.mymodlib.Other\norg.other.Thing";
+        assertComposed(first, second, text);
+        assertEquals("forge.com.mymod.Main\ncom.mymod.lib.Util\ncom/mymod/lib/Util\nforge.com.mymodlib.Other\norg.other.Thing",
+                TextRelocator.compile(CACHE, first, second).relocate(text));
+    }
+
+    @Test
+    public void unrelatedPhasesAreCombined() {
+        assertTrue(TextRelocator.canCombine(map("com.mymod", "forge.com.mymod"), map("org.lib", "shaded.org.lib")));
+        assertFalse(TextRelocator.canCombine(map("com.mymod", "forge.com.mymod"), map("forge.com.mymod.lib", "com.mymod.lib")));
+        assertFalse(TextRelocator.canCombine(map("b", "X"), map("aX", "Q")));
+        assertFalse(TextRelocator.canCombine(map("b", ""), map("ac", "Q")));
+        assertComposed(map("com.mymod", "forge.com.mymod"), map("org.lib", "shaded.org.lib"), "com.mymod.A org.lib.B");
+    }
+
+    @Test
+    public void randomPhasesMatchSequentialReplacement() {
+        Random random = new Random(42);
+        for (int run = 0; run < 5000; run++) {
+            Map<String, String> first = randomMap(random);
+            Map<String, String> second = randomMap(random);
+            for (int input = 0; input < 5; input++) {
+                assertComposed(first, second, randomText(random, 12));
+            }
+        }
+    }
+
+    private static void assertComposed(Map<String, String> first, Map<String, String> second, String text) {
+        String sequential = TextRelocator.compile(CACHE, second).relocate(TextRelocator.compile(CACHE, first).relocate(text));
+        assertEquals(sequential, TextRelocator.compile(CACHE, first, second).relocate(text), () -> "first " + first + ", second " + second + ", text " + text);
+    }
+
+    private static Map<String, String> randomMap(Random random) {
+        Map<String, String> map = new LinkedHashMap<>();
+        int size = 1 + random.nextInt(3);
+        for (int i = 0; i < size; i++) {
+            map.put(randomText(random, 1 + random.nextInt(3)), randomText(random, random.nextInt(4)));
+        }
+        return map;
+    }
+
+    private static String randomText(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append("abc.".charAt(random.nextInt(4)));
+        }
+        return text.toString();
+    }
+
+    private static Map<String, String> map(String... entries) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            map.put(entries[i], entries[i + 1]);
+        }
+        return map;
+    }
+}